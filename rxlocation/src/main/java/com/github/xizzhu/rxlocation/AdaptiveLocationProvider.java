@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.Single;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.subjects.BehaviorSubject;
+import java.util.concurrent.Callable;
+
+/**
+ * Wraps another provider, and duty-cycles its location updates: when the device is stationary,
+ * the request is replaced by one with lower priority and longer interval; when it moves again, the
+ * original request is restored. The switch re-registers with the wrapped provider, while the
+ * returned observable stays subscribed.
+ */
+public final class AdaptiveLocationProvider implements RxLocationProvider {
+    final RxLocationProvider rxLocationProvider;
+    final float stationaryRadiusInMeters;
+    final long stationaryDurationInMillis;
+    @LocationUpdateRequest.Priority
+    final int stationaryPriority;
+    final long stationaryIntervalInMillis;
+
+    public AdaptiveLocationProvider(@NonNull RxLocationProvider rxLocationProvider) {
+        this(new Builder(rxLocationProvider));
+    }
+
+    AdaptiveLocationProvider(Builder builder) {
+        rxLocationProvider = builder.rxLocationProvider;
+        stationaryRadiusInMeters = builder.stationaryRadiusInMeters;
+        stationaryDurationInMillis = builder.stationaryDurationInMillis;
+        stationaryPriority = builder.stationaryPriority;
+        stationaryIntervalInMillis = builder.stationaryIntervalInMillis;
+    }
+
+    @NonNull
+    @Override
+    public Single<Location> getLastLocation() {
+        return rxLocationProvider.getLastLocation();
+    }
+
+    @NonNull
+    @Override
+    public Observable<Location> getLocationUpdates(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        final LocationUpdateRequest stationaryRequest = toStationaryRequest(locationUpdateRequest);
+        return Observable.defer(new Callable<ObservableSource<Location>>() {
+            @Override
+            public ObservableSource<Location> call() throws Exception {
+                final MotionDetector motionDetector =
+                    new MotionDetector(stationaryRadiusInMeters, stationaryDurationInMillis);
+                final BehaviorSubject<Boolean> stationarySubject =
+                    BehaviorSubject.createDefault(false);
+                return stationarySubject.distinctUntilChanged()
+                    .switchMap(new Function<Boolean, ObservableSource<Location>>() {
+                        @Override
+                        public ObservableSource<Location> apply(Boolean stationary)
+                            throws Exception {
+                            return rxLocationProvider.getLocationUpdates(
+                                stationary ? stationaryRequest : locationUpdateRequest);
+                        }
+                    })
+                    .doOnNext(new Consumer<Location>() {
+                        @Override
+                        public void accept(Location location) throws Exception {
+                            stationarySubject.onNext(motionDetector.update(location));
+                        }
+                    });
+            }
+        });
+    }
+
+    @NonNull
+    LocationUpdateRequest toStationaryRequest(@NonNull LocationUpdateRequest request) {
+        // never asks for more power than the original request
+        final int priority = LocationUpdateRequest.rankPriority(stationaryPriority)
+            > LocationUpdateRequest.rankPriority(request.getPriority()) ? stationaryPriority
+            : request.getPriority();
+        return request.toBuilder()
+            .priority(priority)
+            .intervalInMillis(Math.max(request.getIntervalInMillis(), stationaryIntervalInMillis))
+            .build();
+    }
+
+    public static class Builder {
+        final RxLocationProvider rxLocationProvider;
+        float stationaryRadiusInMeters = 25.0F;
+        long stationaryDurationInMillis = 120000L;
+        @LocationUpdateRequest.Priority
+        int stationaryPriority = LocationUpdateRequest.PRIORITY_LOW_POWER;
+        long stationaryIntervalInMillis = 120000L;
+
+        public Builder(@NonNull RxLocationProvider rxLocationProvider) {
+            this.rxLocationProvider = rxLocationProvider;
+        }
+
+        /**
+         * Sets how far the fixes can move, in addition to their accuracy, while the device is
+         * still considered stationary. By default, it's 25 meters.
+         */
+        @NonNull
+        public Builder stationaryRadiusInMeters(float stationaryRadiusInMeters) {
+            this.stationaryRadiusInMeters = stationaryRadiusInMeters;
+            return this;
+        }
+
+        /**
+         * Sets how long the fixes must stay within the radius before the device is considered
+         * stationary. By default, it's 2 minutes.
+         */
+        @NonNull
+        public Builder stationaryDurationInMillis(long stationaryDurationInMillis) {
+            this.stationaryDurationInMillis = stationaryDurationInMillis;
+            return this;
+        }
+
+        /**
+         * Sets the priority used while the device is stationary. By default, it's
+         * {@link LocationUpdateRequest#PRIORITY_LOW_POWER}.
+         */
+        @NonNull
+        public Builder stationaryPriority(@LocationUpdateRequest.Priority int stationaryPriority) {
+            this.stationaryPriority = stationaryPriority;
+            return this;
+        }
+
+        /**
+         * Sets the minimum interval used while the device is stationary. By default, it's 2
+         * minutes.
+         */
+        @NonNull
+        public Builder stationaryIntervalInMillis(long stationaryIntervalInMillis) {
+            this.stationaryIntervalInMillis = stationaryIntervalInMillis;
+            return this;
+        }
+
+        @NonNull
+        public AdaptiveLocationProvider build() {
+            return new AdaptiveLocationProvider(this);
+        }
+    }
+}
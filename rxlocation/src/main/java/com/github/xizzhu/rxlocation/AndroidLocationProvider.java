@@ -16,62 +16,133 @@
 
 package com.github.xizzhu.rxlocation;
 
+import android.app.PendingIntent;
 import android.content.Context;
 import android.location.Location;
-import android.location.LocationListener;
 import android.location.LocationManager;
-import android.os.Bundle;
 import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
 import io.reactivex.Single;
-import io.reactivex.SingleEmitter;
-import io.reactivex.SingleOnSubscribe;
+import io.reactivex.SingleSource;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.BiFunction;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 public final class AndroidLocationProvider implements RxLocationProvider {
-    private static final float HIGH_ACCURACY_THRESHOLD = 50.0F;
-    private static final float BALANCED_POWER_ACCURACY_THRESHOLD = 100.0F;
-    private static final long BALANCED_POWER_GPS_UPDATE_MIN_TIME_IN_MILLI = 30000L;
-
     final Context applicationContext;
+    final LocationManager locationManager;
+    final ProviderStateTracker providerStateTracker;
+    final LocationUpdateMultiplexer locationUpdateMultiplexer;
+    final long cacheMaxAgeInMillis;
+    final float cacheAccuracyThresholdInMeters;
+    final long lastLocationTimeoutInMillis;
+    final SingleCoalescer<Location> lastLocationCoalescer;
 
     public AndroidLocationProvider(Context context) {
-        applicationContext = context.getApplicationContext();
+        this(new Builder(context));
+    }
+
+    AndroidLocationProvider(Builder builder) {
+        applicationContext = builder.context;
+        locationManager =
+            (LocationManager) applicationContext.getSystemService(Context.LOCATION_SERVICE);
+        providerStateTracker = ProviderStateTracker.getInstance(applicationContext);
+        locationUpdateMultiplexer = LocationUpdateMultiplexer.getInstance(locationManager,
+            providerStateTracker, builder.deliveryLooper);
+        cacheMaxAgeInMillis = builder.cacheMaxAgeInMillis;
+        cacheAccuracyThresholdInMeters = builder.cacheAccuracyThresholdInMeters;
+        lastLocationTimeoutInMillis = builder.lastLocationTimeoutInMillis;
+        lastLocationCoalescer = new SingleCoalescer<>(queryLastLocation());
     }
 
+    /**
+     * Concurrent calls share one lookup, and all receive its result.
+     */
     @NonNull
     @Override
     public Single<Location> getLastLocation() {
-        return Single.create(new SingleOnSubscribe<Location>() {
+        return Single.defer(new Callable<SingleSource<Location>>() {
             @Override
-            public void subscribe(SingleEmitter<Location> emitter) throws Exception {
-                try {
-                    final LocationManager locationManager =
-                        (LocationManager) applicationContext.getSystemService(
-                            Context.LOCATION_SERVICE);
-                    Location bestLocation = null;
-                    for (String provider : locationManager.getAllProviders()) {
-                        //noinspection MissingPermission
-                        final Location location = locationManager.getLastKnownLocation(provider);
-                        if (LocationUtils.isBetterThan(location, bestLocation)) {
-                            bestLocation = location;
-                        }
+            public SingleSource<Location> call() throws Exception {
+                if (cacheMaxAgeInMillis > 0L) {
+                    final Location cachedLocation = LocationCache.getInstance()
+                        .get(cacheMaxAgeInMillis, cacheAccuracyThresholdInMeters);
+                    if (cachedLocation != null) {
+                        return Single.just(cachedLocation);
                     }
-                    if (bestLocation != null) {
-                        emitter.onSuccess(bestLocation);
-                    } else {
-                        emitter.onError(new IllegalStateException("No last location available"));
-                    }
-                } catch (Throwable e) {
-                    emitter.onError(e);
                 }
+                return lastLocationCoalescer.get();
             }
         });
     }
 
+    /**
+     * Queries the last known location of all enabled providers in parallel, and picks the best one
+     * returned before the deadline, if any. Everything, including finding the enabled providers,
+     * runs on the I/O scheduler.
+     */
+    @NonNull
+    Single<Location> queryLastLocation() {
+        return Single.fromCallable(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                return providerStateTracker.getEnabledProviders();
+            }
+        }).subscribeOn(Schedulers.io())
+            .flatMap(new Function<List<String>, SingleSource<Location>>() {
+                @Override
+                public SingleSource<Location> apply(List<String> providers) throws Exception {
+                    final List<Maybe<Location>> lookups = new ArrayList<>(providers.size());
+                    for (final String provider : providers) {
+                        // a null location means the provider has none, errors are propagated
+                        lookups.add(Maybe.fromCallable(new Callable<Location>() {
+                            @Override
+                            public Location call() throws Exception {
+                                //noinspection MissingPermission
+                                return locationManager.getLastKnownLocation(provider);
+                            }
+                        }).subscribeOn(Schedulers.io()));
+                    }
+
+                    Flowable<Location> locations = Maybe.merge(lookups);
+                    if (lastLocationTimeoutInMillis > 0L) {
+                        locations = locations.takeUntil(
+                            Flowable.timer(lastLocationTimeoutInMillis, TimeUnit.MILLISECONDS));
+                    }
+                    return locations.reduce(new BiFunction<Location, Location, Location>() {
+                        @Override
+                        public Location apply(Location bestLocation, Location location)
+                            throws Exception {
+                            return LocationUtils.isBetterThan(location, bestLocation) ? location
+                                : bestLocation;
+                        }
+                    }).switchIfEmpty(Maybe.<Location>error(
+                        new IllegalStateException("No last location available")))
+                        .doOnSuccess(new Consumer<Location>() {
+                            @Override
+                            public void accept(Location location) throws Exception {
+                                LocationCache.getInstance().put(location);
+                            }
+                        })
+                        .toSingle();
+                }
+            });
+    }
+
     @NonNull
     @Override
     public Observable<Location> getLocationUpdates(
@@ -79,84 +150,191 @@ public final class AndroidLocationProvider implements RxLocationProvider {
         return Observable.create(new ObservableOnSubscribe<Location>() {
             @Override
             public void subscribe(final ObservableEmitter<Location> emitter) throws Exception {
-                try {
-                    final int priority = locationUpdateRequest.getPriority();
-                    final LocationListener locationListener = new LocationListener() {
-                        @Override
-                        public void onLocationChanged(Location location) {
-                            final float accuracy = location.getAccuracy();
-                            if ((priority == LocationUpdateRequest.PRIORITY_HIGH_ACCURACY
-                                && accuracy > HIGH_ACCURACY_THRESHOLD) || (priority
-                                == LocationUpdateRequest.PRIORITY_BALANCED_POWER_ACCURACY
-                                && accuracy > BALANCED_POWER_ACCURACY_THRESHOLD)) {
-                                return;
+                if (LocationBatcher.getMaxWaitingTimeInMillis(locationUpdateRequest) == 0L) {
+                    addSubscriber(emitter,
+                        new LocationUpdateMultiplexer.Subscriber(locationUpdateRequest) {
+                            @Override
+                            void onNext(Location location) {
+                                emitter.onNext(location);
                             }
-                            emitter.onNext(location);
-                        }
-
-                        @Override
-                        public void onStatusChanged(String provider, int status, Bundle extras) {
-                            // do nothing
-                        }
+                        }, null);
+                    return;
+                }
 
+                // like Play Services, locations are delivered together every max waiting time
+                addSubscriber(emitter, locationUpdateRequest,
+                    new LocationBatcher(locationUpdateRequest) {
                         @Override
-                        public void onProviderEnabled(String provider) {
-                            // do nothing
+                        void onBatch(List<Location> locations) {
+                            for (int i = 0; i < locations.size(); ++i) {
+                                emitter.onNext(locations.get(i));
+                            }
                         }
+                    });
+            }
+        });
+    }
 
+    /**
+     * Same as {@link #getLocationUpdates(LocationUpdateRequest)}, but emits the locations in
+     * batches according to {@link LocationUpdateRequest#getMaxWaitingTimeInMillis()}.
+     */
+    @NonNull
+    public Observable<List<Location>> getLocationUpdatesBatched(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        return Observable.create(new ObservableOnSubscribe<List<Location>>() {
+            @Override
+            public void subscribe(final ObservableEmitter<List<Location>> emitter)
+                throws Exception {
+                addSubscriber(emitter, locationUpdateRequest,
+                    new LocationBatcher(locationUpdateRequest) {
                         @Override
-                        public void onProviderDisabled(String provider) {
-                            // do nothing
+                        void onBatch(List<Location> locations) {
+                            emitter.onNext(locations);
                         }
-                    };
+                    });
+            }
+        });
+    }
 
-                    final LocationManager locationManager =
-                        (LocationManager) applicationContext.getSystemService(
-                            Context.LOCATION_SERVICE);
-                    final long minTime = locationUpdateRequest.getIntervalInMillis();
-                    final float minDistance = locationUpdateRequest.getSmallestDistanceInMeters();
+    private void addSubscriber(ObservableEmitter<?> emitter,
+        LocationUpdateRequest locationUpdateRequest, final LocationBatcher locationBatcher) {
+        addSubscriber(emitter, new LocationUpdateMultiplexer.Subscriber(locationUpdateRequest) {
+            @Override
+            void onNext(Location location) {
+                locationBatcher.add(location);
+            }
+        }, locationBatcher);
+    }
 
-                    // we always use passive provider
-                    //noinspection MissingPermission
-                    locationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER,
-                        minTime, minDistance, locationListener, Looper.getMainLooper());
-
-                    if (priority != LocationUpdateRequest.PRIORITY_NO_POWER) {
-                        // we use network provider, as long as it's not no power mode
-                        //noinspection MissingPermission
-                        locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
-                            minTime, minDistance, locationListener, Looper.getMainLooper());
-                    }
+    /**
+     * Adds the subscriber to the multiplexer, until the emitter is disposed.
+     */
+    private void addSubscriber(ObservableEmitter<?> emitter,
+        final LocationUpdateMultiplexer.Subscriber subscriber,
+        @Nullable final LocationBatcher locationBatcher) {
+        try {
+            locationUpdateMultiplexer.add(subscriber);
 
-                    if (priority == LocationUpdateRequest.PRIORITY_BALANCED_POWER_ACCURACY) {
-                        // for balanced mode, we enabled GPS provider, but less frequently
-                        //noinspection MissingPermission
-                        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
-                            Math.max(BALANCED_POWER_GPS_UPDATE_MIN_TIME_IN_MILLI, minTime * 2L),
-                            minDistance, locationListener, Looper.getMainLooper());
-                    } else if (priority == LocationUpdateRequest.PRIORITY_HIGH_ACCURACY) {
-                        // for high accuracy mode, we fire GPS as frequently as requested
-                        //noinspection MissingPermission
-                        locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
-                            minTime, minDistance, locationListener, Looper.getMainLooper());
+            emitter.setDisposable(new Disposable() {
+                @Override
+                public void dispose() {
+                    locationUpdateMultiplexer.remove(subscriber);
+                    if (locationBatcher != null) {
+                        locationBatcher.dispose();
                     }
+                }
 
-                    emitter.setDisposable(new Disposable() {
-                        @Override
-                        public void dispose() {
-                            //noinspection MissingPermission
-                            locationManager.removeUpdates(locationListener);
-                        }
+                @Override
+                public boolean isDisposed() {
+                    return false;
+                }
+            });
+        } catch (Throwable e) {
+            emitter.onError(e);
+        }
+    }
 
-                        @Override
-                        public boolean isDisposed() {
-                            return false;
-                        }
-                    });
-                } catch (Throwable e) {
-                    emitter.onError(e);
+    /**
+     * Requests location updates that are received even while the process is not running, and kept
+     * in {@link LocationSpool} until emitted by {@link LocationSpool#getLocations()}. The request
+     * replaces the previous one, and stays active until
+     * {@link #removeBackgroundLocationUpdates()} is called.
+     */
+    @NonNull
+    public Completable requestBackgroundLocationUpdates(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        return Completable.fromAction(new Action() {
+            @Override
+            public void run() throws Exception {
+                final PendingIntent pendingIntent =
+                    BackgroundLocationReceiver.getPendingIntent(applicationContext,
+                        BackgroundLocationReceiver.REQUEST_CODE_ANDROID);
+                //noinspection MissingPermission
+                locationManager.removeUpdates(pendingIntent);
+                try {
+                    LocationUpdateMultiplexer.register(locationManager, locationUpdateRequest,
+                        pendingIntent);
+                } catch (RuntimeException e) {
+                    //noinspection MissingPermission
+                    locationManager.removeUpdates(pendingIntent);
+                    throw e;
                 }
             }
         });
     }
+
+    @NonNull
+    public Completable removeBackgroundLocationUpdates() {
+        return Completable.fromAction(new Action() {
+            @Override
+            public void run() throws Exception {
+                //noinspection MissingPermission
+                locationManager.removeUpdates(
+                    BackgroundLocationReceiver.getPendingIntent(applicationContext,
+                        BackgroundLocationReceiver.REQUEST_CODE_ANDROID));
+            }
+        });
+    }
+
+    public static class Builder {
+        final Context context;
+        @Nullable
+        Looper deliveryLooper = Looper.getMainLooper();
+
+        long cacheMaxAgeInMillis;
+        float cacheAccuracyThresholdInMeters;
+        long lastLocationTimeoutInMillis;
+
+        public Builder(Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        /**
+         * Sets the looper on which location updates are received and emitted. By default, the main
+         * looper is used.
+         */
+        @NonNull
+        public Builder deliveryLooper(@NonNull Looper deliveryLooper) {
+            this.deliveryLooper = deliveryLooper;
+            return this;
+        }
+
+        /**
+         * Receives and emits location updates on a background thread owned by the library, which
+         * is shared by all subscribers and quits when the last one is disposed.
+         */
+        @NonNull
+        public Builder deliverOnBackgroundThread() {
+            this.deliveryLooper = null;
+            return this;
+        }
+
+        /**
+         * Lets {@link AndroidLocationProvider#getLastLocation()} return the location from
+         * {@link LocationCache} without querying the platform, if it's not older than the given
+         * max age and its accuracy is within the given threshold.
+         */
+        @NonNull
+        public Builder useLocationCache(long maxAgeInMillis, float accuracyThresholdInMeters) {
+            this.cacheMaxAgeInMillis = maxAgeInMillis;
+            this.cacheAccuracyThresholdInMeters = accuracyThresholdInMeters;
+            return this;
+        }
+
+        /**
+         * Sets how long {@link AndroidLocationProvider#getLastLocation()} waits for the providers,
+         * before returning the best location found so far. By default, there's no deadline.
+         */
+        @NonNull
+        public Builder lastLocationTimeoutInMillis(long lastLocationTimeoutInMillis) {
+            this.lastLocationTimeoutInMillis = lastLocationTimeoutInMillis;
+            return this;
+        }
+
+        @NonNull
+        public AndroidLocationProvider build() {
+            return new AndroidLocationProvider(this);
+        }
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import com.google.android.gms.location.LocationResult;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Receives background location updates from both {@link LocationManager} and Google Play Services,
+ * and passes them to {@link LocationSpool}. It's declared in the manifest of the library, so it
+ * also receives updates while the process is not running. The locations are spooled on a
+ * background thread, keeping the broadcast alive until they are written.
+ */
+public final class BackgroundLocationReceiver extends BroadcastReceiver {
+    static final int REQUEST_CODE_ANDROID = 0;
+    static final int REQUEST_CODE_PLAY_SERVICES = 1;
+
+    // a single thread, so that the locations are spooled in the order they are received
+    private static final Executor executor =
+        Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                final Thread thread = new Thread(runnable, "RxLocationSpool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final List<Location> locations;
+        if (LocationResult.hasResult(intent)) {
+            locations = LocationResult.extractResult(intent).getLocations();
+        } else {
+            final Location location =
+                intent.getParcelableExtra(LocationManager.KEY_LOCATION_CHANGED);
+            if (location == null) {
+                return;
+            }
+            locations = Collections.singletonList(location);
+        }
+
+        for (Location location : locations) {
+            LocationCache.getInstance().put(location);
+        }
+
+        final LocationSpool locationSpool = LocationSpool.getInstance(context);
+        final PendingResult pendingResult =
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ? goAsync() : null;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    locationSpool.offer(locations);
+                } catch (IOException e) {
+                    // nothing more can be done, the locations are lost
+                } finally {
+                    if (pendingResult != null) {
+                        pendingResult.finish();
+                    }
+                }
+            }
+        });
+    }
+
+    static PendingIntent getPendingIntent(Context context, int requestCode) {
+        return PendingIntent.getBroadcast(context, requestCode,
+            new Intent(context, BackgroundLocationReceiver.class),
+            PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
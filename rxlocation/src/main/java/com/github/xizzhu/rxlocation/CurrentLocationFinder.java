@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds a good enough location within a deadline. A cached location from {@link LocationCache} is
+ * returned at once if it's good enough; otherwise, the last locations and location updates of all
+ * providers are raced, and the first good enough fix wins. On timeout, the best fix seen so far is
+ * returned. All location updates are released as soon as the returned single completes.
+ */
+public final class CurrentLocationFinder {
+    static final long DEFAULT_MAX_AGE_IN_MILLIS = 60000L;
+    static final float DEFAULT_ACCURACY_THRESHOLD_IN_METERS = 100.0F;
+    static final long DEFAULT_TIMEOUT_IN_MILLIS = 10000L;
+
+    final RxLocationProvider[] rxLocationProviders;
+    final LocationUpdateRequest locationUpdateRequest;
+    final long maxAgeInMillis;
+    final float accuracyThresholdInMeters;
+    final long timeoutInMillis;
+    final Scheduler scheduler;
+
+    CurrentLocationFinder(Builder builder) {
+        rxLocationProviders = builder.rxLocationProviders;
+        locationUpdateRequest = builder.locationUpdateRequest;
+        maxAgeInMillis = builder.maxAgeInMillis;
+        accuracyThresholdInMeters = builder.accuracyThresholdInMeters;
+        timeoutInMillis = builder.timeoutInMillis;
+        scheduler = builder.scheduler;
+    }
+
+    @NonNull
+    public Single<Location> getCurrentLocation() {
+        return Single.defer(new Callable<SingleSource<Location>>() {
+            @Override
+            public SingleSource<Location> call() throws Exception {
+                final Location cachedLocation =
+                    LocationCache.getInstance().get(maxAgeInMillis, accuracyThresholdInMeters);
+                if (cachedLocation != null) {
+                    return Single.just(cachedLocation);
+                }
+                return race();
+            }
+        });
+    }
+
+    @NonNull
+    Single<Location> race() {
+        final List<Observable<Location>> candidates =
+            new ArrayList<>(rxLocationProviders.length * 2);
+        for (RxLocationProvider rxLocationProvider : rxLocationProviders) {
+            // a failing provider shouldn't fail the race
+            candidates.add(rxLocationProvider.getLastLocation()
+                .toObservable()
+                .onErrorResumeNext(Observable.<Location>empty()));
+            candidates.add(rxLocationProvider.getLocationUpdates(locationUpdateRequest)
+                .onErrorResumeNext(Observable.<Location>empty()));
+        }
+
+        final Location[] bestLocation = new Location[1];
+        return Observable.merge(candidates)
+            .takeUntil(Observable.timer(timeoutInMillis, TimeUnit.MILLISECONDS, scheduler))
+            .doOnNext(new Consumer<Location>() {
+                @Override
+                public void accept(Location location) throws Exception {
+                    synchronized (bestLocation) {
+                        if (LocationUtils.isBetterThan(location, bestLocation[0])) {
+                            bestLocation[0] = location;
+                        }
+                    }
+                }
+            })
+            .filter(new Predicate<Location>() {
+                @Override
+                public boolean test(Location location) throws Exception {
+                    return isGoodEnough(location);
+                }
+            })
+            .firstElement()
+            .switchIfEmpty(Maybe.defer(new Callable<MaybeSource<Location>>() {
+                @Override
+                public MaybeSource<Location> call() throws Exception {
+                    synchronized (bestLocation) {
+                        return bestLocation[0] != null ? Maybe.just(bestLocation[0])
+                            : Maybe.<Location>error(
+                                new IllegalStateException("No location available"));
+                    }
+                }
+            }))
+            .toSingle();
+    }
+
+    boolean isGoodEnough(@NonNull Location location) {
+        return location.hasAccuracy() && location.getAccuracy() <= accuracyThresholdInMeters
+            && LocationUtils.getAgeInMillis(location) <= maxAgeInMillis;
+    }
+
+    public static class Builder {
+        final RxLocationProvider[] rxLocationProviders;
+        LocationUpdateRequest locationUpdateRequest = new LocationUpdateRequest.Builder().priority(
+            LocationUpdateRequest.PRIORITY_HIGH_ACCURACY).build();
+        long maxAgeInMillis = DEFAULT_MAX_AGE_IN_MILLIS;
+        float accuracyThresholdInMeters = DEFAULT_ACCURACY_THRESHOLD_IN_METERS;
+        long timeoutInMillis = DEFAULT_TIMEOUT_IN_MILLIS;
+        Scheduler scheduler = Schedulers.computation();
+
+        public Builder(@NonNull RxLocationProvider... rxLocationProviders) {
+            if (rxLocationProviders.length == 0) {
+                throw new IllegalArgumentException("At least one provider is needed");
+            }
+            this.rxLocationProviders = rxLocationProviders.clone();
+        }
+
+        /**
+         * Sets the request used for location updates. By default, it's high accuracy.
+         */
+        @NonNull
+        public Builder locationUpdateRequest(
+            @NonNull LocationUpdateRequest locationUpdateRequest) {
+            this.locationUpdateRequest = locationUpdateRequest;
+            return this;
+        }
+
+        /**
+         * Sets the max age of a good enough location. By default, it's 1 minute.
+         */
+        @NonNull
+        public Builder maxAgeInMillis(long maxAgeInMillis) {
+            this.maxAgeInMillis = maxAgeInMillis;
+            return this;
+        }
+
+        /**
+         * Sets the worst accuracy of a good enough location. By default, it's 100 meters.
+         */
+        @NonNull
+        public Builder accuracyThresholdInMeters(float accuracyThresholdInMeters) {
+            this.accuracyThresholdInMeters = accuracyThresholdInMeters;
+            return this;
+        }
+
+        /**
+         * Sets how long to wait for a good enough location, before returning the best one seen.
+         * By default, it's 10 seconds.
+         */
+        @NonNull
+        public Builder timeoutInMillis(long timeoutInMillis) {
+            this.timeoutInMillis = timeoutInMillis;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler for the timeout. By default, the computation scheduler is used.
+         */
+        @NonNull
+        public Builder scheduler(@NonNull Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        @NonNull
+        public CurrentLocationFinder build() {
+            return new CurrentLocationFinder(this);
+        }
+    }
+}
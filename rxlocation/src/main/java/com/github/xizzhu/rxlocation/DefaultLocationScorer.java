@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.LocationManager;
+import android.support.annotation.NonNull;
+
+/**
+ * Scores a location by how far the device can be from it now, i.e. its accuracy plus the distance
+ * the device could have moved since, at its reported speed but no slower than an assumed speed. So
+ * an accurate but old location loses to a less accurate but fresh one only once it's likely worse,
+ * even if it was reported as standing still.
+ */
+public class DefaultLocationScorer implements LocationScorer {
+    static final float DEFAULT_ASSUMED_SPEED_IN_METERS_PER_SECOND = 1.5F; // walking
+
+    private static final float GPS_UNKNOWN_ACCURACY_IN_METERS = 100.0F;
+    private static final float UNKNOWN_ACCURACY_IN_METERS = 1000.0F;
+
+    final float assumedSpeedInMetersPerSecond;
+
+    public DefaultLocationScorer() {
+        this(DEFAULT_ASSUMED_SPEED_IN_METERS_PER_SECOND);
+    }
+
+    /**
+     * @param assumedSpeedInMetersPerSecond the min speed used to age locations, 1.5 meters per
+     * second by default
+     */
+    public DefaultLocationScorer(float assumedSpeedInMetersPerSecond) {
+        if (!(assumedSpeedInMetersPerSecond >= 0.0F)) {
+            throw new IllegalArgumentException("Assumed speed must not be negative");
+        }
+        this.assumedSpeedInMetersPerSecond = assumedSpeedInMetersPerSecond;
+    }
+
+    @Override
+    public double score(@NonNull String provider, float accuracyInMeters, long ageInMillis,
+        float speedInMetersPerSecond) {
+        final double accuracy;
+        if (!Float.isNaN(accuracyInMeters)) {
+            accuracy = accuracyInMeters;
+        } else if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            accuracy = GPS_UNKNOWN_ACCURACY_IN_METERS;
+        } else {
+            accuracy = UNKNOWN_ACCURACY_IN_METERS;
+        }
+        final double speed = Float.isNaN(speedInMetersPerSecond) ? assumedSpeedInMetersPerSecond
+            : Math.max(speedInMetersPerSecond, assumedSpeedInMetersPerSecond);
+        return -(accuracy + speed * Math.max(ageInMillis, 0L) / 1000.0);
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefers the primary provider (e.g. {@link PlayServicesLocationProvider}), and transparently
+ * falls back to the secondary one (e.g. {@link AndroidLocationProvider}) when the primary one
+ * fails, or stays silent for too long, e.g. while its connection is suspended. The primary provider
+ * is retried in the background, and the secondary one is released as soon as the primary one emits
+ * again. Subscribers keep the same observable through all switches, which only terminates once
+ * neither provider is running nor to be retried.
+ */
+public final class FallbackLocationProvider implements RxLocationProvider {
+    static final long DEFAULT_MIN_PRIMARY_TIMEOUT_IN_MILLIS = 30000L;
+    static final long DEFAULT_RETRY_DELAY_IN_MILLIS = 60000L;
+
+    final RxLocationProvider primary;
+    final RxLocationProvider secondary;
+    final long primaryTimeoutInMillis;
+    final long retryDelayInMillis;
+    final Scheduler scheduler;
+
+    public FallbackLocationProvider(@NonNull RxLocationProvider primary,
+        @NonNull RxLocationProvider secondary) {
+        this(new Builder(primary, secondary));
+    }
+
+    FallbackLocationProvider(Builder builder) {
+        primary = builder.primary;
+        secondary = builder.secondary;
+        primaryTimeoutInMillis = builder.primaryTimeoutInMillis;
+        retryDelayInMillis = builder.retryDelayInMillis;
+        scheduler = builder.scheduler;
+    }
+
+    @NonNull
+    @Override
+    public Single<Location> getLastLocation() {
+        return primary.getLastLocation().onErrorResumeNext(secondary.getLastLocation());
+    }
+
+    @NonNull
+    @Override
+    public Observable<Location> getLocationUpdates(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        return Observable.create(new ObservableOnSubscribe<Location>() {
+            @Override
+            public void subscribe(ObservableEmitter<Location> emitter) throws Exception {
+                new Fallback<Location>(emitter, locationUpdateRequest) {
+                    @Override
+                    Observable<Location> fromPrimary() {
+                        return primary.getLocationUpdates(locationUpdateRequest);
+                    }
+
+                    @Override
+                    Observable<Location> fromSecondary() {
+                        return secondary.getLocationUpdates(locationUpdateRequest);
+                    }
+                }.start();
+            }
+        });
+    }
+
+    /**
+     * Switches between the providers. The state is guarded by the lock, but the emitter is only
+     * called outside of it, so that downstream work never blocks the other provider's thread.
+     */
+    abstract class Fallback<T> implements Disposable {
+        final ObservableEmitter<T> emitter;
+        final long timeoutInMillis;
+        final Runnable timeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                startSecondary();
+            }
+        };
+        final Runnable retryRunnable = new Runnable() {
+            @Override
+            public void run() {
+                startPrimary();
+            }
+        };
+
+        boolean disposed;
+        boolean primaryCompleted;
+        boolean secondaryActive;
+        // the secondary provider has terminated, and its error if it failed
+        boolean secondaryCompleted;
+        Throwable secondaryError;
+        Disposable primaryDisposable;
+        Disposable secondaryDisposable;
+        Disposable timeoutDisposable;
+        Disposable retryDisposable;
+
+        Fallback(ObservableEmitter<T> emitter, LocationUpdateRequest locationUpdateRequest) {
+            this.emitter = emitter.serialize();
+            final long maxWaitingTime = Math.max(locationUpdateRequest.getIntervalInMillis(),
+                locationUpdateRequest.getMaxWaitingTimeInMillis());
+            timeoutInMillis = primaryTimeoutInMillis > 0L ? primaryTimeoutInMillis
+                : Math.max(DEFAULT_MIN_PRIMARY_TIMEOUT_IN_MILLIS, maxWaitingTime * 3L);
+        }
+
+        abstract Observable<T> fromPrimary();
+
+        abstract Observable<T> fromSecondary();
+
+        void start() {
+            emitter.setDisposable(this);
+            startPrimary();
+        }
+
+        void startPrimary() {
+            synchronized (this) {
+                if (disposed) {
+                    return;
+                }
+                retryDisposable = null;
+                timeoutDisposable = schedule(timeoutDisposable, timeoutRunnable, timeoutInMillis);
+            }
+            final Disposable disposable = fromPrimary().subscribe(new Consumer<T>() {
+                @Override
+                public void accept(T t) throws Exception {
+                    onPrimaryNext(t);
+                }
+            }, new Consumer<Throwable>() {
+                @Override
+                public void accept(Throwable throwable) throws Exception {
+                    onPrimaryError(throwable);
+                }
+            }, new Action() {
+                @Override
+                public void run() throws Exception {
+                    onPrimaryComplete();
+                }
+            });
+            synchronized (this) {
+                if (disposed) {
+                    disposable.dispose();
+                } else if (!disposable.isDisposed()) {
+                    // not yet terminated synchronously
+                    primaryDisposable = disposable;
+                }
+            }
+        }
+
+        void onPrimaryNext(T t) {
+            synchronized (this) {
+                if (disposed) {
+                    return;
+                }
+                // the primary provider is healthy again
+                timeoutDisposable = schedule(timeoutDisposable, timeoutRunnable, timeoutInMillis);
+                secondaryActive = false;
+                secondaryDisposable = cancel(secondaryDisposable);
+            }
+            emitter.onNext(t);
+        }
+
+        void onPrimaryError(Throwable throwable) {
+            final boolean bothCompleted;
+            synchronized (this) {
+                if (disposed) {
+                    return;
+                }
+                primaryDisposable = null;
+                timeoutDisposable = cancel(timeoutDisposable);
+                bothCompleted = secondaryCompleted;
+                if (!bothCompleted) {
+                    retryDisposable = schedule(retryDisposable, retryRunnable, retryDelayInMillis);
+                }
+            }
+            if (bothCompleted) {
+                // both providers are gone
+                emitter.onError(throwable);
+            } else {
+                startSecondary();
+            }
+        }
+
+        void onPrimaryComplete() {
+            final boolean bothCompleted;
+            synchronized (this) {
+                if (disposed) {
+                    return;
+                }
+                primaryDisposable = null;
+                primaryCompleted = true;
+                timeoutDisposable = cancel(timeoutDisposable);
+                bothCompleted = secondaryCompleted;
+            }
+            if (!bothCompleted) {
+                startSecondary();
+            } else if (secondaryError != null) {
+                emitter.onError(secondaryError);
+            } else {
+                emitter.onComplete();
+            }
+        }
+
+        void startSecondary() {
+            synchronized (this) {
+                if (disposed || secondaryActive || secondaryCompleted) {
+                    return;
+                }
+                secondaryActive = true;
+            }
+            final Disposable disposable = fromSecondary().subscribe(new Consumer<T>() {
+                @Override
+                public void accept(T t) throws Exception {
+                    onSecondaryNext(t);
+                }
+            }, new Consumer<Throwable>() {
+                @Override
+                public void accept(Throwable throwable) throws Exception {
+                    onSecondaryError(throwable);
+                }
+            }, new Action() {
+                @Override
+                public void run() throws Exception {
+                    onSecondaryComplete();
+                }
+            });
+            synchronized (this) {
+                if (!secondaryActive) {
+                    // released by the primary provider meanwhile
+                    disposable.dispose();
+                } else if (!disposable.isDisposed()) {
+                    secondaryDisposable = disposable;
+                }
+            }
+        }
+
+        void onSecondaryNext(T t) {
+            synchronized (this) {
+                if (disposed || !secondaryActive) {
+                    return;
+                }
+            }
+            emitter.onNext(t);
+        }
+
+        void onSecondaryError(Throwable throwable) {
+            synchronized (this) {
+                if (disposed) {
+                    return;
+                }
+                secondaryActive = false;
+                secondaryDisposable = null;
+                secondaryCompleted = true;
+                secondaryError = throwable;
+                if (!primaryCompleted) {
+                    // the primary provider is still running, or will be retried
+                    return;
+                }
+            }
+            // both providers are gone
+            emitter.onError(throwable);
+        }
+
+        void onSecondaryComplete() {
+            synchronized (this) {
+                if (disposed) {
+                    return;
+                }
+                secondaryActive = false;
+                secondaryDisposable = null;
+                secondaryCompleted = true;
+                if (!primaryCompleted) {
+                    // the primary provider is still running, or will be retried
+                    return;
+                }
+            }
+            emitter.onComplete();
+        }
+
+        private Disposable schedule(Disposable disposable, Runnable runnable,
+            long delayInMillis) {
+            cancel(disposable);
+            return scheduler.scheduleDirect(runnable, delayInMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private Disposable cancel(Disposable disposable) {
+            if (disposable != null) {
+                disposable.dispose();
+            }
+            return null;
+        }
+
+        @Override
+        public synchronized void dispose() {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            primaryDisposable = cancel(primaryDisposable);
+            secondaryActive = false;
+            secondaryDisposable = cancel(secondaryDisposable);
+            timeoutDisposable = cancel(timeoutDisposable);
+            retryDisposable = cancel(retryDisposable);
+        }
+
+        @Override
+        public synchronized boolean isDisposed() {
+            return disposed;
+        }
+    }
+
+    public static class Builder {
+        final RxLocationProvider primary;
+        final RxLocationProvider secondary;
+        long primaryTimeoutInMillis;
+        long retryDelayInMillis = DEFAULT_RETRY_DELAY_IN_MILLIS;
+        Scheduler scheduler = Schedulers.computation();
+
+        public Builder(@NonNull RxLocationProvider primary,
+            @NonNull RxLocationProvider secondary) {
+            this.primary = primary;
+            this.secondary = secondary;
+        }
+
+        /**
+         * Sets how long the primary provider can stay silent before the secondary one is used. By
+         * default, it's 3 times the interval or max waiting time of the request, but at least 30
+         * seconds.
+         */
+        @NonNull
+        public Builder primaryTimeoutInMillis(long primaryTimeoutInMillis) {
+            this.primaryTimeoutInMillis = primaryTimeoutInMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long to wait before retrying a failed primary provider. By default, it's 1
+         * minute.
+         */
+        @NonNull
+        public Builder retryDelayInMillis(long retryDelayInMillis) {
+            this.retryDelayInMillis = retryDelayInMillis;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler for the timeout and retry timers. By default, the computation
+         * scheduler is used.
+         */
+        @NonNull
+        public Builder scheduler(@NonNull Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        @NonNull
+        public FallbackLocationProvider build() {
+            return new FallbackLocationProvider(this);
+        }
+    }
+}
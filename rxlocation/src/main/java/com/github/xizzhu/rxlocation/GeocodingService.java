@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Address;
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Resolves addresses for {@link RxGeocoder}. The methods are called on the scheduler of
+ * {@link RxGeocoder}, and can block.
+ */
+public interface GeocodingService {
+    @NonNull
+    List<Address> getFromLocation(double latitude, double longitude, int maxResults)
+        throws IOException;
+
+    @NonNull
+    List<Address> getFromLocationName(@NonNull String locationName, int maxResults)
+        throws IOException;
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A circular or polygonal region monitored by {@link GeofenceEngine}.
+ */
+public final class Geofence {
+    private static final double METERS_PER_DEGREE = 111319.49;
+
+    @NonNull
+    final String id;
+    final long dwellTimeInMillis;
+
+    // circle
+    final double centerLatitude;
+    final double centerLongitude;
+    final double radiusInMeters;
+
+    // polygon, null for circle
+    final double[] latitudes;
+    final double[] longitudes;
+
+    // bounding box
+    final double minLatitude;
+    final double maxLatitude;
+    final double minLongitude;
+    final double maxLongitude;
+
+    Geofence(Builder builder) {
+        id = builder.id;
+        dwellTimeInMillis = builder.dwellTimeInMillis;
+        centerLatitude = builder.centerLatitude;
+        centerLongitude = builder.centerLongitude;
+        radiusInMeters = builder.radiusInMeters;
+        latitudes = builder.latitudes;
+        longitudes = builder.longitudes;
+
+        if (latitudes == null) {
+            final double latitudeRadius = radiusInMeters / METERS_PER_DEGREE;
+            final double longitudeRadius = radiusInMeters / (METERS_PER_DEGREE * Math.max(
+                Math.cos(Math.toRadians(Math.abs(centerLatitude) + latitudeRadius)), 0.01));
+            minLatitude = centerLatitude - latitudeRadius;
+            maxLatitude = centerLatitude + latitudeRadius;
+            minLongitude = centerLongitude - longitudeRadius;
+            maxLongitude = centerLongitude + longitudeRadius;
+        } else {
+            double minLatitude = Double.MAX_VALUE;
+            double maxLatitude = -Double.MAX_VALUE;
+            double minLongitude = Double.MAX_VALUE;
+            double maxLongitude = -Double.MAX_VALUE;
+            for (int i = 0; i < latitudes.length; ++i) {
+                minLatitude = Math.min(minLatitude, latitudes[i]);
+                maxLatitude = Math.max(maxLatitude, latitudes[i]);
+                minLongitude = Math.min(minLongitude, longitudes[i]);
+                maxLongitude = Math.max(maxLongitude, longitudes[i]);
+            }
+            this.minLatitude = minLatitude;
+            this.maxLatitude = maxLatitude;
+            this.minLongitude = minLongitude;
+            this.maxLongitude = maxLongitude;
+        }
+    }
+
+    @NonNull
+    public String getId() {
+        return id;
+    }
+
+    public long getDwellTimeInMillis() {
+        return dwellTimeInMillis;
+    }
+
+    boolean contains(double latitude, double longitude) {
+        if (latitude < minLatitude || latitude > maxLatitude || longitude < minLongitude
+            || longitude > maxLongitude) {
+            return false;
+        }
+
+        if (latitudes == null) {
+            final double dy = (latitude - centerLatitude) * METERS_PER_DEGREE;
+            final double dx = (longitude - centerLongitude) * METERS_PER_DEGREE * Math.cos(
+                Math.toRadians(centerLatitude));
+            return dx * dx + dy * dy <= radiusInMeters * radiusInMeters;
+        }
+
+        // ray casting
+        boolean inside = false;
+        for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude) && longitude
+                < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i]) / (latitudes[j]
+                - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    public static class Builder {
+        final String id;
+        long dwellTimeInMillis;
+        double centerLatitude;
+        double centerLongitude;
+        double radiusInMeters;
+        double[] latitudes;
+        double[] longitudes;
+
+        public Builder(@NonNull String id) {
+            this.id = id;
+        }
+
+        @NonNull
+        public Builder circle(double latitude, double longitude, double radiusInMeters) {
+            if (!(radiusInMeters > 0.0)) {
+                throw new IllegalArgumentException("Radius must be positive");
+            }
+            this.centerLatitude = latitude;
+            this.centerLongitude = longitude;
+            this.radiusInMeters = radiusInMeters;
+            this.latitudes = null;
+            this.longitudes = null;
+            return this;
+        }
+
+        /**
+         * Sets the vertices of the polygon, which shouldn't cross the 180th meridian.
+         */
+        @NonNull
+        public Builder polygon(@NonNull double[] latitudes, @NonNull double[] longitudes) {
+            if (latitudes.length != longitudes.length || latitudes.length < 3) {
+                throw new IllegalArgumentException("Polygon needs at least 3 vertices");
+            }
+            this.latitudes = latitudes.clone();
+            this.longitudes = longitudes.clone();
+            return this;
+        }
+
+        /**
+         * Sets how long the device must stay in the region before a dwell transition is emitted.
+         * By default, it's 0 and no dwell transition is emitted.
+         */
+        @NonNull
+        public Builder dwellTimeInMillis(long dwellTimeInMillis) {
+            this.dwellTimeInMillis = dwellTimeInMillis;
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException if neither a circle nor a polygon is set
+         */
+        @NonNull
+        public Geofence build() {
+            if (latitudes == null && radiusInMeters <= 0.0) {
+                throw new IllegalStateException("Geofence needs a circle or a polygon");
+            }
+            return new Geofence(this);
+        }
+    }
+}
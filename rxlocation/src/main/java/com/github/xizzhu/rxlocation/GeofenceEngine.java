@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableOperator;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Evaluates geofences against a location stream. The geofences are indexed by a uniform grid, so
+ * that each fix is only tested against the geofences overlapping its cell, instead of all of them.
+ * Geofences much larger than a cell are kept in a separate list tested against every fix, so that
+ * one large geofence doesn't fill the grid. Geofences can be added and removed at any time, also
+ * while being monitored. Each change publishes an immutable snapshot of the grid, so that fixes are
+ * evaluated without lock or allocation.
+ */
+public final class GeofenceEngine {
+    static final double DEFAULT_CELL_SIZE_IN_DEGREES = 0.01; // about 1.1 kilometers
+    static final int MAX_CELLS_PER_GEOFENCE = 64;
+
+    private static final Geofence[] EMPTY = new Geofence[0];
+
+    final double cellSizeInDegrees;
+    // the grid being edited, only accessed with the lock
+    final Map<String, Geofence> geofences = new HashMap<>();
+    final Map<Long, Geofence[]> cells = new HashMap<>();
+    // geofences overlapping more than MAX_CELLS_PER_GEOFENCE cells
+    Geofence[] oversizedGeofences = EMPTY;
+
+    volatile Index index = new Index(new long[0], new Geofence[0][], EMPTY);
+
+    public GeofenceEngine() {
+        this(DEFAULT_CELL_SIZE_IN_DEGREES);
+    }
+
+    /**
+     * @param cellSizeInDegrees the size of the grid cells, which should be close to the size of a
+     * typical geofence
+     */
+    public GeofenceEngine(double cellSizeInDegrees) {
+        if (!(cellSizeInDegrees > 0.0)) {
+            throw new IllegalArgumentException("Cell size must be positive");
+        }
+        this.cellSizeInDegrees = cellSizeInDegrees;
+    }
+
+    /**
+     * Adds the geofence, replacing the one with the same ID if any.
+     */
+    public synchronized void add(@NonNull Geofence geofence) {
+        removeFromGrid(geofence.getId());
+        addToGrid(geofence);
+        publish();
+    }
+
+    public synchronized void remove(@NonNull String id) {
+        if (removeFromGrid(id)) {
+            publish();
+        }
+    }
+
+    public synchronized void clear() {
+        geofences.clear();
+        cells.clear();
+        oversizedGeofences = EMPTY;
+        publish();
+    }
+
+    private void addToGrid(Geofence geofence) {
+        geofences.put(geofence.getId(), geofence);
+
+        if (isOversized(geofence)) {
+            oversizedGeofences = append(oversizedGeofences, geofence);
+            return;
+        }
+
+        final int minLatitudeCell = toCell(geofence.minLatitude);
+        final int maxLatitudeCell = toCell(geofence.maxLatitude);
+        final int minLongitudeCell = toCell(geofence.minLongitude);
+        final int maxLongitudeCell = toCell(geofence.maxLongitude);
+        for (int latitudeCell = minLatitudeCell; latitudeCell <= maxLatitudeCell;
+            ++latitudeCell) {
+            for (int longitudeCell = minLongitudeCell; longitudeCell <= maxLongitudeCell;
+                ++longitudeCell) {
+                final Long key = toKey(latitudeCell, longitudeCell);
+                final Geofence[] cell = cells.get(key);
+                cells.put(key, cell == null ? new Geofence[] { geofence } : append(cell, geofence));
+            }
+        }
+    }
+
+    private boolean removeFromGrid(String id) {
+        final Geofence geofence = geofences.remove(id);
+        if (geofence == null) {
+            return false;
+        }
+
+        if (isOversized(geofence)) {
+            oversizedGeofences = removeFrom(oversizedGeofences, geofence);
+            return true;
+        }
+
+        final int minLatitudeCell = toCell(geofence.minLatitude);
+        final int maxLatitudeCell = toCell(geofence.maxLatitude);
+        final int minLongitudeCell = toCell(geofence.minLongitude);
+        final int maxLongitudeCell = toCell(geofence.maxLongitude);
+        for (int latitudeCell = minLatitudeCell; latitudeCell <= maxLatitudeCell;
+            ++latitudeCell) {
+            for (int longitudeCell = minLongitudeCell; longitudeCell <= maxLongitudeCell;
+                ++longitudeCell) {
+                final Long key = toKey(latitudeCell, longitudeCell);
+                final Geofence[] cell = cells.get(key);
+                if (cell == null) {
+                    continue;
+                }
+                final Geofence[] newCell = removeFrom(cell, geofence);
+                if (newCell.length == 0) {
+                    cells.remove(key);
+                } else {
+                    cells.put(key, newCell);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Publishes a snapshot of the grid, with the cell keys sorted for binary search.
+     */
+    private void publish() {
+        final long[] keys = new long[cells.size()];
+        int i = 0;
+        for (Long key : cells.keySet()) {
+            keys[i++] = key;
+        }
+        Arrays.sort(keys);
+        final Geofence[][] sortedCells = new Geofence[keys.length][];
+        for (i = 0; i < keys.length; ++i) {
+            sortedCells[i] = cells.get(keys[i]);
+        }
+        index = new Index(keys, sortedCells, oversizedGeofences);
+    }
+
+    /**
+     * @return the transitions triggered by the given location stream. Geofences that are removed
+     * while the device is inside emit an exit transition on the next fix.
+     */
+    @NonNull
+    public Observable<GeofenceTransition> monitor(@NonNull Observable<Location> locations) {
+        return locations.lift(new ObservableOperator<GeofenceTransition, Location>() {
+            @Override
+            public Observer<? super Location> apply(
+                Observer<? super GeofenceTransition> observer) throws Exception {
+                return new MonitoringObserver(observer);
+            }
+        });
+    }
+
+    @NonNull
+    Geofence[] query(double latitude, double longitude) {
+        return index.get(toKey(toCell(latitude), toCell(longitude)));
+    }
+
+    @NonNull
+    Geofence[] queryOversized() {
+        return index.oversizedGeofences;
+    }
+
+    private boolean isOversized(Geofence geofence) {
+        final long latitudeCells =
+            (long) toCell(geofence.maxLatitude) - toCell(geofence.minLatitude) + 1L;
+        final long longitudeCells =
+            (long) toCell(geofence.maxLongitude) - toCell(geofence.minLongitude) + 1L;
+        return latitudeCells * longitudeCells > MAX_CELLS_PER_GEOFENCE;
+    }
+
+    @NonNull
+    private static Geofence[] append(Geofence[] geofences, Geofence geofence) {
+        final Geofence[] newGeofences = new Geofence[geofences.length + 1];
+        System.arraycopy(geofences, 0, newGeofences, 0, geofences.length);
+        newGeofences[geofences.length] = geofence;
+        return newGeofences;
+    }
+
+    @NonNull
+    private static Geofence[] removeFrom(Geofence[] geofences, Geofence geofence) {
+        if (geofences.length <= 1) {
+            return EMPTY;
+        }
+        final Geofence[] newGeofences = new Geofence[geofences.length - 1];
+        for (int i = 0, j = 0; i < geofences.length; ++i) {
+            if (geofences[i] != geofence && j < newGeofences.length) {
+                newGeofences[j++] = geofences[i];
+            }
+        }
+        return newGeofences;
+    }
+
+    private int toCell(double degrees) {
+        return (int) Math.floor(degrees / cellSizeInDegrees);
+    }
+
+    private static long toKey(int latitudeCell, int longitudeCell) {
+        return ((long) latitudeCell << 32) | (longitudeCell & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Immutable snapshot of the grid, with the cell keys sorted and the cells in the same order.
+     */
+    static final class Index {
+        final long[] keys;
+        final Geofence[][] cells;
+        final Geofence[] oversizedGeofences;
+
+        Index(long[] keys, Geofence[][] cells, Geofence[] oversizedGeofences) {
+            this.keys = keys;
+            this.cells = cells;
+            this.oversizedGeofences = oversizedGeofences;
+        }
+
+        @NonNull
+        Geofence[] get(long key) {
+            final int i = Arrays.binarySearch(keys, key);
+            return i >= 0 ? cells[i] : EMPTY;
+        }
+    }
+
+    static final class Inside {
+        final long enterTime;
+        Geofence geofence;
+        boolean dwellReported;
+        long generation;
+
+        Inside(Geofence geofence, long enterTime) {
+            this.geofence = geofence;
+            this.enterTime = enterTime;
+        }
+    }
+
+    final class MonitoringObserver implements Observer<Location> {
+        final Observer<? super GeofenceTransition> actual;
+        // keyed by ID, so that replacing a geofence with the same ID doesn't exit and enter again
+        final Map<String, Inside> insides = new HashMap<>();
+
+        long generation;
+
+        MonitoringObserver(Observer<? super GeofenceTransition> actual) {
+            this.actual = actual;
+        }
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            actual.onSubscribe(d);
+        }
+
+        @Override
+        public void onNext(Location location) {
+            ++generation;
+            final double latitude = location.getLatitude();
+            final double longitude = location.getLongitude();
+            final long time = location.getTime();
+
+            // the same snapshot for both lookups
+            final Index index = GeofenceEngine.this.index;
+            for (Geofence geofence : index.get(toKey(toCell(latitude), toCell(longitude)))) {
+                check(geofence, location, latitude, longitude, time);
+            }
+            for (Geofence geofence : index.oversizedGeofences) {
+                check(geofence, location, latitude, longitude, time);
+            }
+
+            if (insides.isEmpty()) {
+                return;
+            }
+            final Iterator<Inside> iterator = insides.values().iterator();
+            while (iterator.hasNext()) {
+                final Inside inside = iterator.next();
+                if (inside.generation != generation) {
+                    iterator.remove();
+                    actual.onNext(new GeofenceTransition(inside.geofence,
+                        GeofenceTransition.TRANSITION_EXIT, location));
+                }
+            }
+        }
+
+        private void check(Geofence geofence, Location location, double latitude,
+            double longitude, long time) {
+            if (!geofence.contains(latitude, longitude)) {
+                return;
+            }
+
+            Inside inside = insides.get(geofence.getId());
+            if (inside == null) {
+                inside = new Inside(geofence, time);
+                insides.put(geofence.getId(), inside);
+                actual.onNext(new GeofenceTransition(geofence,
+                    GeofenceTransition.TRANSITION_ENTER, location));
+            }
+            inside.geofence = geofence;
+            inside.generation = generation;
+
+            final long dwellTime = geofence.getDwellTimeInMillis();
+            if (!inside.dwellReported && dwellTime > 0L && time - inside.enterTime >= dwellTime) {
+                inside.dwellReported = true;
+                actual.onNext(new GeofenceTransition(geofence,
+                    GeofenceTransition.TRANSITION_DWELL, location));
+            }
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            actual.onError(e);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+    }
+}
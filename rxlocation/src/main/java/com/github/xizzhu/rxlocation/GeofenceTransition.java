@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+public final class GeofenceTransition {
+    public static final int TRANSITION_ENTER = 1;
+    public static final int TRANSITION_EXIT = 2;
+    public static final int TRANSITION_DWELL = 4;
+
+    @IntDef({ TRANSITION_ENTER, TRANSITION_EXIT, TRANSITION_DWELL })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Transition {
+    }
+
+    @NonNull
+    private final Geofence geofence;
+    @GeofenceTransition.Transition
+    private final int transition;
+    @NonNull
+    private final Location location;
+
+    GeofenceTransition(@NonNull Geofence geofence, int transition, @NonNull Location location) {
+        this.geofence = geofence;
+        this.transition = transition;
+        this.location = location;
+    }
+
+    @NonNull
+    public Geofence getGeofence() {
+        return geofence;
+    }
+
+    @GeofenceTransition.Transition
+    public int getTransition() {
+        return transition;
+    }
+
+    /**
+     * @return the location that triggered the transition.
+     */
+    @NonNull
+    public Location getLocation() {
+        return location;
+    }
+}
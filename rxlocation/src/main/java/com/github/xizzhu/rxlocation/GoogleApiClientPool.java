@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationServices;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shares one connected {@link GoogleApiClient} among all subscribers in the process. The client is
+ * reference-counted, kept connected for an idle timeout after the last subscriber leaves, and
+ * reconnected when the connection is suspended.
+ */
+final class GoogleApiClientPool
+    implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+    static final long DEFAULT_IDLE_TIMEOUT_IN_MILLIS = 10000L;
+
+    private static GoogleApiClientPool instance;
+
+    final Context applicationContext;
+    final Handler handler = new Handler(Looper.getMainLooper());
+    final List<PlayServicesCallback> callbacks = new ArrayList<>();
+    final Runnable disconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            disconnectIfIdle();
+        }
+    };
+
+    GoogleApiClient googleApiClient;
+    long connectStartElapsedRealtime;
+    long connectionLatencyInMillis;
+    // whether the connection was started by prewarm(), and no subscriber has used it yet
+    boolean prewarmed;
+    // whether onConnected() has been delivered for the current connection, and how many times
+    boolean connected;
+    int connectionGeneration;
+
+    private GoogleApiClientPool(Context context) {
+        applicationContext = context.getApplicationContext();
+    }
+
+    static synchronized GoogleApiClientPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new GoogleApiClientPool(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Registers the callback, and connects the shared client if needed. If the client is already
+     * connected, {@link PlayServicesCallback#onConnected(Bundle)} is posted to the main thread.
+     */
+    void acquire(PlayServicesCallback callback) {
+        acquire(callback, false);
+    }
+
+    /**
+     * Same as {@link #acquire(PlayServicesCallback)}, but the connection it starts is reported as
+     * prewarmed to the first subscriber using it.
+     */
+    void prewarm(PlayServicesCallback callback) {
+        acquire(callback, true);
+    }
+
+    private void acquire(final PlayServicesCallback callback, boolean prewarm) {
+        final boolean connected;
+        long hiddenConnectionLatencyInMillis = -1L;
+        synchronized (this) {
+            handler.removeCallbacks(disconnectRunnable);
+            callbacks.add(callback);
+
+            if (googleApiClient == null) {
+                googleApiClient =
+                    new GoogleApiClient.Builder(applicationContext, this, this).addApi(
+                        LocationServices.API).build();
+            }
+            callback.setGoogleApiClient(googleApiClient);
+
+            // the client can report connected before onConnected() is delivered to callbacks
+            connected = this.connected;
+            if (!googleApiClient.isConnected() && !googleApiClient.isConnecting()) {
+                prewarmed = prewarm;
+                connect();
+            } else if (!prewarm && prewarmed) {
+                prewarmed = false;
+                hiddenConnectionLatencyInMillis = connected ? connectionLatencyInMillis
+                    : SystemClock.elapsedRealtime() - connectStartElapsedRealtime;
+            }
+        }
+
+        if (hiddenConnectionLatencyInMillis >= 0L) {
+            LocationMetrics.listener().onConnectionPrewarmed(hiddenConnectionLatencyInMillis);
+        }
+
+        if (connected) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliverConnected(callback, null);
+                }
+            });
+        }
+    }
+
+    /**
+     * Calls {@link PlayServicesCallback#onConnected(Bundle)} if the callback is still acquired, and
+     * hasn't been called for the current connection yet.
+     */
+    void deliverConnected(PlayServicesCallback callback, @Nullable Bundle connectionHint) {
+        synchronized (this) {
+            if (!connected || !callbacks.contains(callback)
+                || callback.connectionGeneration == connectionGeneration) {
+                return;
+            }
+            callback.connectionGeneration = connectionGeneration;
+        }
+        callback.onConnected(connectionHint);
+    }
+
+    /**
+     * Unregisters the callback. When no callback is left, the shared client is disconnected after
+     * the given idle timeout.
+     */
+    synchronized void release(PlayServicesCallback callback, long idleTimeoutInMillis) {
+        if (!callbacks.remove(callback) || !callbacks.isEmpty()) {
+            return;
+        }
+        handler.removeCallbacks(disconnectRunnable);
+        if (idleTimeoutInMillis > 0L) {
+            handler.postDelayed(disconnectRunnable, idleTimeoutInMillis);
+        } else {
+            disconnectIfIdle();
+        }
+    }
+
+    synchronized void disconnectIfIdle() {
+        if (callbacks.isEmpty() && googleApiClient != null) {
+            if (googleApiClient.isConnected() || googleApiClient.isConnecting()) {
+                googleApiClient.disconnect();
+            }
+            googleApiClient = null;
+            prewarmed = false;
+            connected = false;
+        }
+    }
+
+    private void connect() {
+        connectStartElapsedRealtime = SystemClock.elapsedRealtime();
+        googleApiClient.connect();
+    }
+
+    @NonNull
+    private synchronized PlayServicesCallback[] snapshotCallbacks() {
+        return callbacks.toArray(new PlayServicesCallback[callbacks.size()]);
+    }
+
+    @Override
+    public void onConnected(@Nullable Bundle connectionHint) {
+        final long connectionLatencyInMillis;
+        synchronized (this) {
+            connectionLatencyInMillis =
+                SystemClock.elapsedRealtime() - connectStartElapsedRealtime;
+            this.connectionLatencyInMillis = connectionLatencyInMillis;
+            connected = true;
+            ++connectionGeneration;
+        }
+        LocationMetrics.listener().onGoogleApiClientConnected(connectionLatencyInMillis);
+
+        for (PlayServicesCallback callback : snapshotCallbacks()) {
+            deliverConnected(callback, connectionHint);
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        synchronized (this) {
+            connected = false;
+        }
+        for (PlayServicesCallback callback : snapshotCallbacks()) {
+            callback.onConnectionSuspended(cause);
+        }
+
+        synchronized (this) {
+            if (googleApiClient != null && !callbacks.isEmpty() && !googleApiClient.isConnected()
+                && !googleApiClient.isConnecting()) {
+                connect();
+            }
+        }
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        final PlayServicesCallback[] failedCallbacks;
+        synchronized (this) {
+            failedCallbacks = snapshotCallbacks();
+            callbacks.clear();
+            handler.removeCallbacks(disconnectRunnable);
+            // drops the failed client, so that the next subscriber starts with a fresh one
+            if (googleApiClient != null) {
+                googleApiClient.unregisterConnectionCallbacks(this);
+                googleApiClient.unregisterConnectionFailedListener(this);
+                googleApiClient.disconnect();
+                googleApiClient = null;
+            }
+            prewarmed = false;
+            connected = false;
+        }
+
+        for (PlayServicesCallback callback : failedCallbacks) {
+            callback.onConnectionFailed(result);
+        }
+    }
+}
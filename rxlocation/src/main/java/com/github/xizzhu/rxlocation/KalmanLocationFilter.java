@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.os.Build;
+import io.reactivex.Observable;
+import io.reactivex.ObservableOperator;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Smooths fixes from one or more providers with a constant velocity Kalman filter. Each fix is
+ * weighted by its reported accuracy, fixes older than the last accepted one are dropped, and fixes
+ * too far from the prediction are rejected as outliers. Each emitted location is a copy of the
+ * accepted fix with the filtered position, accuracy, speed and bearing. Fixes are timed by their
+ * elapsed realtime if available, or their wall clock time otherwise, and the filter restarts when
+ * switching between the two.
+ */
+public final class KalmanLocationFilter implements ObservableTransformer<Location, Location> {
+    static final float DEFAULT_ACCELERATION_IN_METERS_PER_SECOND_SQUARED = 1.0F;
+
+    private static final double METERS_PER_DEGREE = 111319.49;
+    private static final float DEFAULT_ACCURACY_IN_METERS = 100.0F;
+    // 99.9% quantile of chi-square distribution with 2 degrees of freedom
+    private static final double OUTLIER_THRESHOLD = 13.8;
+    // resets the filter after this many outliers in a row, e.g. after a tunnel
+    private static final int MAX_CONSECUTIVE_OUTLIERS = 3;
+
+    final float accelerationInMetersPerSecondSquared;
+
+    public KalmanLocationFilter() {
+        this(DEFAULT_ACCELERATION_IN_METERS_PER_SECOND_SQUARED);
+    }
+
+    /**
+     * @param accelerationInMetersPerSecondSquared the standard deviation of the acceleration, e.g.
+     * 1 for walking, or 3 for driving
+     */
+    public KalmanLocationFilter(float accelerationInMetersPerSecondSquared) {
+        this.accelerationInMetersPerSecondSquared = accelerationInMetersPerSecondSquared;
+    }
+
+    @Override
+    public ObservableSource<Location> apply(Observable<Location> upstream) {
+        return upstream.lift(new ObservableOperator<Location, Location>() {
+            @Override
+            public Observer<? super Location> apply(Observer<? super Location> observer)
+                throws Exception {
+                return new FilteringObserver(observer, accelerationInMetersPerSecondSquared,
+                    Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1);
+            }
+        });
+    }
+
+    static final class FilteringObserver implements Observer<Location> {
+        final Observer<? super Location> actual;
+        final double accelerationVariance;
+        final boolean hasElapsedRealtimeNanos;
+
+        boolean initialized;
+        int consecutiveOutliers;
+        // either the elapsed realtime, or the wall clock time, which can't be compared
+        long lastTimeInNanos;
+        boolean lastTimeIsElapsedRealtime;
+
+        // origin of the local plane, in degrees
+        double originLatitude;
+        double originLongitude;
+        double metersPerLongitudeDegree;
+
+        // state and covariance of the east (x) and north (y) axes
+        double x;
+        double vx;
+        double px00;
+        double px01;
+        double px11;
+        double y;
+        double vy;
+        double py00;
+        double py01;
+        double py11;
+
+        FilteringObserver(Observer<? super Location> actual,
+            float accelerationInMetersPerSecondSquared, boolean hasElapsedRealtimeNanos) {
+            this.actual = actual;
+            accelerationVariance = (double) accelerationInMetersPerSecondSquared
+                * accelerationInMetersPerSecondSquared;
+            this.hasElapsedRealtimeNanos = hasElapsedRealtimeNanos;
+        }
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            actual.onSubscribe(d);
+        }
+
+        @Override
+        public void onNext(Location location) {
+            // mock and replayed locations may only have the wall clock time
+            final boolean isElapsedRealtime =
+                hasElapsedRealtimeNanos && location.getElapsedRealtimeNanos() > 0L;
+            final long timeInNanos = isElapsedRealtime ? location.getElapsedRealtimeNanos()
+                : location.getTime() * 1000000L;
+            final float accuracy =
+                location.hasAccuracy() ? location.getAccuracy() : DEFAULT_ACCURACY_IN_METERS;
+            final double variance = (double) accuracy * accuracy;
+
+            if (!initialized || isElapsedRealtime != lastTimeIsElapsedRealtime) {
+                // restarts from this fix if the time basis changes
+                lastTimeIsElapsedRealtime = isElapsedRealtime;
+                reset(location, timeInNanos, variance);
+                emit(location);
+                return;
+            }
+            if (timeInNanos < lastTimeInNanos) {
+                // stale or out of order
+                return;
+            }
+
+            // predicts
+            final double dt = (timeInNanos - lastTimeInNanos) / 1.0E9;
+            if (dt > 0.0) {
+                final double dt2 = dt * dt;
+                final double q00 = accelerationVariance * dt2 * dt2 / 4.0;
+                final double q01 = accelerationVariance * dt2 * dt / 2.0;
+                final double q11 = accelerationVariance * dt2;
+
+                x += vx * dt;
+                final double newPx00 = px00 + 2.0 * dt * px01 + dt2 * px11 + q00;
+                px01 = px01 + dt * px11 + q01;
+                px00 = newPx00;
+                px11 += q11;
+
+                y += vy * dt;
+                final double newPy00 = py00 + 2.0 * dt * py01 + dt2 * py11 + q00;
+                py01 = py01 + dt * py11 + q01;
+                py00 = newPy00;
+                py11 += q11;
+            }
+            lastTimeInNanos = timeInNanos;
+
+            // rejects outliers
+            final double zx =
+                (location.getLongitude() - originLongitude) * metersPerLongitudeDegree;
+            final double zy = (location.getLatitude() - originLatitude) * METERS_PER_DEGREE;
+            final double innovationX = zx - x;
+            final double innovationY = zy - y;
+            final double sx = px00 + variance;
+            final double sy = py00 + variance;
+            if (innovationX * innovationX / sx + innovationY * innovationY / sy
+                > OUTLIER_THRESHOLD) {
+                if (++consecutiveOutliers >= MAX_CONSECUTIVE_OUTLIERS) {
+                    reset(location, timeInNanos, variance);
+                    emit(location);
+                }
+                return;
+            }
+            consecutiveOutliers = 0;
+
+            // updates
+            final double kx0 = px00 / sx;
+            final double kx1 = px01 / sx;
+            x += kx0 * innovationX;
+            vx += kx1 * innovationX;
+            px11 -= kx1 * px01;
+            px01 *= 1.0 - kx0;
+            px00 *= 1.0 - kx0;
+
+            final double ky0 = py00 / sy;
+            final double ky1 = py01 / sy;
+            y += ky0 * innovationY;
+            vy += ky1 * innovationY;
+            py11 -= ky1 * py01;
+            py01 *= 1.0 - ky0;
+            py00 *= 1.0 - ky0;
+
+            emit(location);
+        }
+
+        private void reset(Location location, long timeInNanos, double variance) {
+            initialized = true;
+            consecutiveOutliers = 0;
+            lastTimeInNanos = timeInNanos;
+
+            originLatitude = location.getLatitude();
+            originLongitude = location.getLongitude();
+            metersPerLongitudeDegree =
+                METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+
+            x = 0.0;
+            y = 0.0;
+            vx = 0.0;
+            vy = 0.0;
+            px00 = variance;
+            py00 = variance;
+            px01 = 0.0;
+            py01 = 0.0;
+            // the velocity is unknown
+            px11 = variance;
+            py11 = variance;
+        }
+
+        private void emit(Location location) {
+            final Location filtered = new Location(location);
+            filtered.setLongitude(originLongitude + x / metersPerLongitudeDegree);
+            filtered.setLatitude(originLatitude + y / METERS_PER_DEGREE);
+            filtered.setAccuracy((float) Math.sqrt(Math.max(px00, py00)));
+            filtered.setSpeed((float) Math.sqrt(vx * vx + vy * vy));
+            final double bearing = Math.toDegrees(Math.atan2(vx, vy));
+            filtered.setBearing((float) (bearing < 0.0 ? bearing + 360.0 : bearing));
+            actual.onNext(filtered);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            actual.onError(e);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.support.annotation.NonNull;
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.functions.Action;
+
+/**
+ * How location updates are handled when the consumer can't keep up, e.g.
+ * {@code LocationBackpressure.latest().apply(rxLocationProvider.getLocationUpdates(request))}.
+ */
+public final class LocationBackpressure {
+    private static final LocationBackpressure LATEST = new LocationBackpressure(0);
+    private static final LocationBackpressure DROP = new LocationBackpressure(-1);
+    private static final Action NO_OP = new Action() {
+        @Override
+        public void run() throws Exception {
+            // do nothing
+        }
+    };
+
+    // positive for bounded buffer, 0 for latest, and -1 for drop
+    final int capacity;
+
+    private LocationBackpressure(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Only keeps the latest location until the consumer requests it.
+     */
+    @NonNull
+    public static LocationBackpressure latest() {
+        return LATEST;
+    }
+
+    /**
+     * Drops all locations arriving while the consumer hasn't requested any.
+     */
+    @NonNull
+    public static LocationBackpressure drop() {
+        return DROP;
+    }
+
+    /**
+     * Buffers up to the given number of locations, and drops the oldest one when the buffer is
+     * full.
+     */
+    @NonNull
+    public static LocationBackpressure buffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        return new LocationBackpressure(capacity);
+    }
+
+    /**
+     * @return a flowable of the observable's items, letting the consumer request them at its own
+     * pace while this backpressure keeps the memory usage bounded.
+     */
+    @NonNull
+    public <T> Flowable<T> apply(@NonNull Observable<T> observable) {
+        if (capacity == 0) {
+            return observable.toFlowable(BackpressureStrategy.LATEST);
+        } else if (capacity < 0) {
+            return observable.toFlowable(BackpressureStrategy.DROP);
+        } else {
+            return observable.toFlowable(BackpressureStrategy.MISSING)
+                .onBackpressureBuffer(capacity, NO_OP, BackpressureOverflowStrategy.DROP_OLDEST);
+        }
+    }
+}
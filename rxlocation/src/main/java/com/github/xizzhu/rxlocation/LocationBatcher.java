@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Buffers locations, and emits them as one list when the max waiting time since the first buffered
+ * location is reached, or when the buffer is full. Both {@link #add(Location)} and the flush run
+ * on the looper of the calling thread.
+ */
+abstract class LocationBatcher {
+    static final int MAX_BATCH_SIZE = 100;
+
+    final long maxWaitingTimeInMillis;
+    final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    Handler handler;
+    List<Location> batch;
+
+    LocationBatcher(LocationUpdateRequest request) {
+        maxWaitingTimeInMillis = getMaxWaitingTimeInMillis(request);
+    }
+
+    /**
+     * @return the max waiting time of the request, or 0 if the locations aren't batched.
+     */
+    static long getMaxWaitingTimeInMillis(LocationUpdateRequest request) {
+        // same as Play Services, batching is disabled if max waiting time is less than 2 intervals
+        final long maxWaitingTimeInMillis = request.getMaxWaitingTimeInMillis();
+        return maxWaitingTimeInMillis >= request.getIntervalInMillis() * 2L ? maxWaitingTimeInMillis
+            : 0L;
+    }
+
+    void add(Location location) {
+        if (maxWaitingTimeInMillis == 0L) {
+            onBatch(Collections.singletonList(location));
+            return;
+        }
+
+        if (batch == null) {
+            batch = new ArrayList<>();
+            if (handler == null) {
+                handler = new Handler(Looper.myLooper());
+            }
+            handler.postDelayed(flushRunnable, maxWaitingTimeInMillis);
+        }
+        batch.add(location);
+        if (batch.size() >= MAX_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    void flush() {
+        if (handler != null) {
+            handler.removeCallbacks(flushRunnable);
+        }
+        if (batch != null) {
+            final List<Location> locations = batch;
+            batch = null;
+            onBatch(locations);
+        }
+    }
+
+    /**
+     * Called on the looper with each batch of locations, which is never empty.
+     */
+    abstract void onBatch(List<Location> locations);
+
+    void dispose() {
+        if (handler != null) {
+            handler.removeCallbacks(flushRunnable);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Process-wide in-memory cache of the best known location, fed by all location update streams and
+ * last location lookups of both providers.
+ */
+public final class LocationCache {
+    private static final LocationCache INSTANCE = new LocationCache();
+
+    private LocationStore locationStore;
+    private Location location;
+    private long hitCount;
+    private long missCount;
+
+    private LocationCache() {
+    }
+
+    @NonNull
+    public static LocationCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return a copy of the cached location if it's not older than the given max age, and its
+     * accuracy is within the given threshold; or null otherwise.
+     */
+    @Nullable
+    public synchronized Location get(long maxAgeInMillis, float accuracyThresholdInMeters) {
+        if (location != null && LocationUtils.getAgeInMillis(location) <= maxAgeInMillis
+            && location.hasAccuracy() && location.getAccuracy() <= accuracyThresholdInMeters) {
+            ++hitCount;
+            // copied here rather than in put(), which is called for every fix
+            return new Location(location);
+        }
+        ++missCount;
+        return null;
+    }
+
+    synchronized void put(@Nullable Location location) {
+        if (LocationUtils.isBetterThan(location, this.location)) {
+            this.location = location;
+            if (locationStore != null) {
+                locationStore.offer(location);
+            }
+        }
+    }
+
+    synchronized void setLocationStore(LocationStore locationStore) {
+        this.locationStore = locationStore;
+    }
+
+    public synchronized void clear() {
+        location = null;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+/**
+ * A ref-counted background thread shared by all subscribers that want location updates delivered
+ * off the main thread. The thread is started on the first {@link #acquire()}, and quits when the
+ * last user calls {@link #release()}.
+ */
+abstract class LocationHandlerThread {
+    private static HandlerThread handlerThread;
+    private static int refCount;
+
+    @NonNull
+    static synchronized Looper acquire() {
+        if (handlerThread == null) {
+            handlerThread =
+                new HandlerThread("RxLocation", Process.THREAD_PRIORITY_BACKGROUND);
+            handlerThread.start();
+        }
+        ++refCount;
+        return handlerThread.getLooper();
+    }
+
+    static synchronized void release() {
+        if (refCount == 0) {
+            return;
+        }
+        if (--refCount == 0) {
+            handlerThread.quit();
+            handlerThread = null;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.functions.Consumer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the most recent fixes in a fixed-size ring buffer, stored as primitive arrays of latitude,
+ * longitude, time, accuracy, and speed instead of {@link Location} objects. Fixes are recorded by
+ * composing the history into a location stream, and are kept in time order: a fix older than the
+ * newest one is ignored. Neither recording nor querying allocates.
+ * <p>
+ * Indexes run from 0 for the oldest fix to {@link #size()} - 1 for the newest one, and shift as
+ * new fixes evict old ones. To read several values consistently, hold the lock of the history,
+ * e.g. {@code synchronized (history) { ... }}.
+ */
+public final class LocationHistory implements ObservableTransformer<Location, Location> {
+    /**
+     * Receives the fixes found by {@link #forEach(long, long, Visitor)}.
+     */
+    public interface Visitor {
+        /**
+         * @param accuracy the accuracy in meters, or {@link Float#NaN} if unknown
+         * @param speed the speed in meters per second, or {@link Float#NaN} if unknown
+         */
+        void visit(double latitude, double longitude, long timeInMillis, float accuracy,
+            float speed);
+    }
+
+    private static final int MAGIC = 0x52584C48; // "RXLH"
+    private static final int VERSION = 1;
+
+    // header: magic, version, capacity, head, size
+    private static final int HEADER_SIZE = 20;
+    private static final int HEAD_OFFSET = 12;
+    private static final int SIZE_OFFSET = 16;
+
+    // each field is stored in its own section of the buffer
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 4 + 4;
+
+    final int capacity;
+    final ByteBuffer buffer;
+    private final int latitudeOffset;
+    private final int longitudeOffset;
+    private final int timeOffset;
+    private final int accuracyOffset;
+    private final int speedOffset;
+    private final Consumer<Location> recorder = new Consumer<Location>() {
+        @Override
+        public void accept(Location location) throws Exception {
+            add(location);
+        }
+    };
+
+    // index of the oldest fix in the buffer
+    int head;
+    int size;
+
+    public LocationHistory(int capacity) {
+        this(capacity, ByteBuffer.allocate(getBufferSize(capacity)));
+    }
+
+    private LocationHistory(int capacity, ByteBuffer buffer) {
+        this.capacity = capacity;
+        this.buffer = buffer;
+        latitudeOffset = HEADER_SIZE;
+        longitudeOffset = latitudeOffset + 8 * capacity;
+        timeOffset = longitudeOffset + 8 * capacity;
+        accuracyOffset = timeOffset + 8 * capacity;
+        speedOffset = accuracyOffset + 4 * capacity;
+
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+            && buffer.getInt(8) == capacity) {
+            head = buffer.getInt(HEAD_OFFSET);
+            size = buffer.getInt(SIZE_OFFSET);
+            if (head < 0 || head >= capacity || size < 0 || size > capacity) {
+                reset();
+            }
+        } else {
+            reset();
+        }
+    }
+
+    /**
+     * Opens a history backed by a memory-mapped file, so that the fixes survive across sessions.
+     * The history is reset if the file was created with a different capacity, or is corrupted.
+     */
+    @NonNull
+    public static LocationHistory open(@NonNull File file, int capacity) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            final MappedByteBuffer buffer = randomAccessFile.getChannel()
+                .map(FileChannel.MapMode.READ_WRITE, 0L, getBufferSize(capacity));
+            return new LocationHistory(capacity, buffer);
+        } finally {
+            // the mapping stays valid after the file is closed
+            randomAccessFile.close();
+        }
+    }
+
+    private static int getBufferSize(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        return HEADER_SIZE + RECORD_SIZE * capacity;
+    }
+
+    private void reset() {
+        head = 0;
+        size = 0;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(HEAD_OFFSET, head);
+        buffer.putInt(SIZE_OFFSET, size);
+    }
+
+    /**
+     * Records the fixes emitted by the upstream.
+     */
+    @Override
+    public ObservableSource<Location> apply(Observable<Location> upstream) {
+        return upstream.doOnNext(recorder);
+    }
+
+    public void add(@NonNull Location location) {
+        add(location.getLatitude(), location.getLongitude(), location.getTime(),
+            location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+            location.hasSpeed() ? location.getSpeed() : Float.NaN);
+    }
+
+    public synchronized void add(double latitude, double longitude, long timeInMillis,
+        float accuracy, float speed) {
+        if (size > 0 && timeInMillis < getTime(size - 1)) {
+            return;
+        }
+
+        final int slot;
+        if (size < capacity) {
+            slot = (head + size) % capacity;
+            ++size;
+        } else {
+            slot = head;
+            head = (head + 1) % capacity;
+        }
+        buffer.putDouble(latitudeOffset + 8 * slot, latitude);
+        buffer.putDouble(longitudeOffset + 8 * slot, longitude);
+        buffer.putLong(timeOffset + 8 * slot, timeInMillis);
+        buffer.putFloat(accuracyOffset + 4 * slot, accuracy);
+        buffer.putFloat(speedOffset + 4 * slot, speed);
+        buffer.putInt(HEAD_OFFSET, head);
+        buffer.putInt(SIZE_OFFSET, size);
+    }
+
+    public synchronized void clear() {
+        reset();
+    }
+
+    /**
+     * Writes the fixes to the backing file, if any. Otherwise, the system writes them back at its
+     * own pace.
+     */
+    public void flush() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized double getLatitude(int index) {
+        return buffer.getDouble(latitudeOffset + 8 * toSlot(index));
+    }
+
+    public synchronized double getLongitude(int index) {
+        return buffer.getDouble(longitudeOffset + 8 * toSlot(index));
+    }
+
+    public synchronized long getTime(int index) {
+        return buffer.getLong(timeOffset + 8 * toSlot(index));
+    }
+
+    /**
+     * @return the accuracy in meters, or {@link Float#NaN} if unknown.
+     */
+    public synchronized float getAccuracy(int index) {
+        return buffer.getFloat(accuracyOffset + 4 * toSlot(index));
+    }
+
+    /**
+     * @return the speed in meters per second, or {@link Float#NaN} if unknown.
+     */
+    public synchronized float getSpeed(int index) {
+        return buffer.getFloat(speedOffset + 4 * toSlot(index));
+    }
+
+    private int toSlot(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return (head + index) % capacity;
+    }
+
+    /**
+     * @return the index of the first fix not older than the given time, or {@link #size()} if
+     * there is none.
+     */
+    public synchronized int indexOf(long timeInMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getTime(middle) < timeInMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the fix closest in time to the given time, or -1 if the history is
+     * empty.
+     */
+    public synchronized int findNearest(long timeInMillis) {
+        if (size == 0) {
+            return -1;
+        }
+        final int index = indexOf(timeInMillis);
+        if (index == size) {
+            return size - 1;
+        }
+        if (index > 0 && timeInMillis - getTime(index - 1) <= getTime(index) - timeInMillis) {
+            return index - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Visits the fixes within the given time window, from the oldest to the newest.
+     *
+     * @return the number of fixes visited.
+     */
+    public synchronized int forEach(long fromTimeInMillis, long toTimeInMillis,
+        @NonNull Visitor visitor) {
+        int count = 0;
+        for (int index = indexOf(fromTimeInMillis); index < size; ++index) {
+            final int slot = (head + index) % capacity;
+            final long time = buffer.getLong(timeOffset + 8 * slot);
+            if (time > toTimeInMillis) {
+                break;
+            }
+            visitor.visit(buffer.getDouble(latitudeOffset + 8 * slot),
+                buffer.getDouble(longitudeOffset + 8 * slot), time,
+                buffer.getFloat(accuracyOffset + 4 * slot),
+                buffer.getFloat(speedOffset + 4 * slot));
+            ++count;
+        }
+        return count;
+    }
+}
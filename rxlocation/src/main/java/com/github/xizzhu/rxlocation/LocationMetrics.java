@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Holds the process-wide {@link LocationMetricsListener}. Metrics are disabled by default.
+ */
+public final class LocationMetrics {
+    static final String PROVIDER_FUSED = "fused";
+
+    private static final LocationMetricsListener NO_OP = new LocationMetricsListener() {
+    };
+
+    private static volatile LocationMetricsListener listener = NO_OP;
+
+    private LocationMetrics() {
+    }
+
+    /**
+     * Sets the listener to receive metrics, or null to disable metrics. It should be set before any
+     * location is requested, so that no registration is missed.
+     */
+    public static void setListener(@Nullable LocationMetricsListener listener) {
+        LocationMetrics.listener = listener != null ? listener : NO_OP;
+    }
+
+    @NonNull
+    static LocationMetricsListener listener() {
+        return listener;
+    }
+}
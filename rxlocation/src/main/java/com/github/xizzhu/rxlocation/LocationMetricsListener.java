@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+/**
+ * Receives metrics from the library, once set by {@link LocationMetrics#setListener}. The methods
+ * are called on the hot path from any thread, so they should be cheap and must not block. All
+ * methods do nothing by default.
+ */
+public abstract class LocationMetricsListener {
+    /**
+     * Called when the shared connection to Google Play Services is established.
+     */
+    public void onGoogleApiClientConnected(long connectionLatencyInMillis) {
+    }
+
+    /**
+     * Called when a subscriber uses the connection started by
+     * {@link PlayServicesLocationProvider#prewarm()}, with the connection latency it didn't have to
+     * wait for.
+     */
+    public void onConnectionPrewarmed(long hiddenConnectionLatencyInMillis) {
+    }
+
+    /**
+     * Called when a location update subscriber receives its first location.
+     */
+    public void onTimeToFirstFix(@LocationUpdateRequest.Priority int priority,
+        long timeToFirstFixInMillis) {
+    }
+
+    /**
+     * Called for every location received from the platform, or from Play Services.
+     */
+    public void onLocationReceived(String provider) {
+    }
+
+    /**
+     * Called when a location is dropped by the accuracy filter of a subscriber.
+     */
+    public void onLocationDropped(@LocationUpdateRequest.Priority int priority) {
+    }
+
+    /**
+     * Called when location updates are registered with a platform provider, or with the fused
+     * provider of Play Services.
+     */
+    public void onLocationUpdatesRegistered(String provider) {
+    }
+
+    /**
+     * Called when location updates registered earlier are removed.
+     */
+    public void onLocationUpdatesUnregistered(String provider, long registeredDurationInMillis) {
+    }
+
+    /**
+     * Called when two locations are ranked to find the better one.
+     */
+    public void onLocationsRanked() {
+    }
+}
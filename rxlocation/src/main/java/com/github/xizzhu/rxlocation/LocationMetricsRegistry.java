@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.LocationManager;
+import android.support.annotation.NonNull;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link LocationMetricsListener} that aggregates the metrics into lock-free counters and
+ * histograms, without allocation.
+ */
+public final class LocationMetricsRegistry extends LocationMetricsListener {
+    /**
+     * A histogram with exponential buckets: bucket 0 counts values up to 1 millisecond, and bucket
+     * i counts values in (2^(i-1), 2^i] milliseconds. The last bucket counts everything larger.
+     */
+    public static final class Histogram {
+        public static final int BUCKET_COUNT = 24;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+
+        Histogram() {
+        }
+
+        void record(long valueInMillis) {
+            final long value = Math.max(valueInMillis, 0L);
+            final int bucket = value <= 1L ? 0
+                : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(value - 1L));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            sum.addAndGet(value);
+        }
+
+        public long getBucketCount(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSumInMillis() {
+            return sum.get();
+        }
+    }
+
+    private final Histogram connectionLatency = new Histogram();
+    private final Histogram hiddenConnectionLatency = new Histogram();
+    private final Histogram timeToFirstFixHighAccuracy = new Histogram();
+    private final Histogram timeToFirstFixBalancedPowerAccuracy = new Histogram();
+    private final Histogram timeToFirstFixLowPower = new Histogram();
+    private final Histogram timeToFirstFixNoPower = new Histogram();
+    private final AtomicLong receivedLocations = new AtomicLong();
+    private final AtomicLong droppedLocations = new AtomicLong();
+    private final AtomicLong rankedLocations = new AtomicLong();
+    private final AtomicInteger activeRegistrations = new AtomicInteger();
+    private final AtomicLong gpsOnDurationInMillis = new AtomicLong();
+
+    @Override
+    public void onGoogleApiClientConnected(long connectionLatencyInMillis) {
+        connectionLatency.record(connectionLatencyInMillis);
+    }
+
+    @Override
+    public void onConnectionPrewarmed(long hiddenConnectionLatencyInMillis) {
+        hiddenConnectionLatency.record(hiddenConnectionLatencyInMillis);
+    }
+
+    @Override
+    public void onTimeToFirstFix(int priority, long timeToFirstFixInMillis) {
+        getTimeToFirstFix(priority).record(timeToFirstFixInMillis);
+    }
+
+    @Override
+    public void onLocationReceived(String provider) {
+        receivedLocations.incrementAndGet();
+    }
+
+    @Override
+    public void onLocationDropped(int priority) {
+        droppedLocations.incrementAndGet();
+    }
+
+    @Override
+    public void onLocationUpdatesRegistered(String provider) {
+        activeRegistrations.incrementAndGet();
+    }
+
+    @Override
+    public void onLocationUpdatesUnregistered(String provider, long registeredDurationInMillis) {
+        activeRegistrations.decrementAndGet();
+        if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            gpsOnDurationInMillis.addAndGet(registeredDurationInMillis);
+        }
+    }
+
+    @Override
+    public void onLocationsRanked() {
+        rankedLocations.incrementAndGet();
+    }
+
+    @NonNull
+    public Histogram getConnectionLatency() {
+        return connectionLatency;
+    }
+
+    /**
+     * @return the connection latency hidden from subscribers by prewarming.
+     */
+    @NonNull
+    public Histogram getHiddenConnectionLatency() {
+        return hiddenConnectionLatency;
+    }
+
+    @NonNull
+    public Histogram getTimeToFirstFix(@LocationUpdateRequest.Priority int priority) {
+        switch (priority) {
+            case LocationUpdateRequest.PRIORITY_HIGH_ACCURACY:
+                return timeToFirstFixHighAccuracy;
+            case LocationUpdateRequest.PRIORITY_BALANCED_POWER_ACCURACY:
+                return timeToFirstFixBalancedPowerAccuracy;
+            case LocationUpdateRequest.PRIORITY_LOW_POWER:
+                return timeToFirstFixLowPower;
+            default:
+                return timeToFirstFixNoPower;
+        }
+    }
+
+    public long getReceivedLocationCount() {
+        return receivedLocations.get();
+    }
+
+    public long getDroppedLocationCount() {
+        return droppedLocations.get();
+    }
+
+    public long getRankedLocationCount() {
+        return rankedLocations.get();
+    }
+
+    public int getActiveRegistrationCount() {
+        return activeRegistrations.get();
+    }
+
+    /**
+     * @return the total time GPS provider was registered, not counting the current registration.
+     */
+    public long getGpsOnDurationInMillis() {
+        return gpsOnDurationInMillis.get();
+    }
+}
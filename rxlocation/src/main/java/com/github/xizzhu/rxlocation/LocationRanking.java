@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Holds the process-wide {@link LocationScorer}, used everywhere the library picks the better of
+ * two locations. By default, {@link DefaultLocationScorer} is used.
+ */
+public final class LocationRanking {
+    private static final LocationScorer DEFAULT = new DefaultLocationScorer();
+
+    private static volatile LocationScorer scorer = DEFAULT;
+
+    private LocationRanking() {
+    }
+
+    /**
+     * Sets the scorer to rank locations, or null to use the default one.
+     */
+    public static void setScorer(@Nullable LocationScorer scorer) {
+        LocationRanking.scorer = scorer != null ? scorer : DEFAULT;
+    }
+
+    @NonNull
+    public static LocationScorer getScorer() {
+        return scorer;
+    }
+}
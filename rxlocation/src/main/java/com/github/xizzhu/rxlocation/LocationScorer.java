@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Scores locations to pick the best one, e.g. for the last location and when merging fixes from
+ * multiple providers. Set it by {@link LocationRanking#setScorer(LocationScorer)}. It's called on
+ * the hot path from any thread, so it shouldn't allocate or block.
+ */
+public interface LocationScorer {
+    /**
+     * @param accuracyInMeters the accuracy, or {@link Float#NaN} if unknown
+     * @param ageInMillis the age of the location
+     * @param speedInMetersPerSecond the speed, or {@link Float#NaN} if unknown
+     * @return the score of the location, the higher the better
+     */
+    double score(@NonNull String provider, float accuracyInMeters, long ageInMillis,
+        float speedInMetersPerSecond);
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.Context;
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the locations received by background location updates, e.g. from
+ * {@link AndroidLocationProvider#requestBackgroundLocationUpdates(LocationUpdateRequest)}, in an
+ * append-only file, so that no location is lost while the process is not running. The records use
+ * the same encoding as {@link LocationStore}, and a partially written record is ignored.
+ * <p>
+ * Spooled locations are moved to a separate file while being emitted, which is only deleted once
+ * all of them are emitted, so that the ones of a replay interrupted by the process dying are
+ * emitted again.
+ */
+public final class LocationSpool {
+    static final int DEFAULT_MAX_LOCATION_COUNT = 10000;
+
+    private static final String FILE_NAME = "rxlocation_spool";
+    private static final String DRAINING_FILE_NAME = "rxlocation_spool_draining";
+
+    private static LocationSpool instance;
+
+    final File file;
+    final File drainingFile;
+    final List<ObservableEmitter<Location>> emitters = new ArrayList<>();
+
+    private int maxLocationCount = DEFAULT_MAX_LOCATION_COUNT;
+    private boolean draining;
+
+    private LocationSpool(Context context) {
+        final File filesDir = context.getApplicationContext().getFilesDir();
+        file = new File(filesDir, FILE_NAME);
+        drainingFile = new File(filesDir, DRAINING_FILE_NAME);
+    }
+
+    @NonNull
+    public static synchronized LocationSpool getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationSpool(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Sets the max number of locations kept in the spool. When it's full, at least the oldest half
+     * is dropped. By default, it's 10000.
+     */
+    public synchronized void setMaxLocationCount(int maxLocationCount) {
+        if (maxLocationCount <= 0) {
+            throw new IllegalArgumentException("Max location count must be positive");
+        }
+        this.maxLocationCount = maxLocationCount;
+    }
+
+    /**
+     * @return the spooled locations, followed by the locations received by background location
+     * updates while subscribed. The spooled locations are removed from the spool once emitted, so
+     * each one is emitted only once unless the process dies meanwhile, and the ones not emitted
+     * before disposal are kept.
+     */
+    @NonNull
+    public Observable<Location> getLocations() {
+        return Observable.create(new ObservableOnSubscribe<Location>() {
+            @Override
+            public void subscribe(final ObservableEmitter<Location> emitter) throws Exception {
+                try {
+                    emitter.setDisposable(new Disposable() {
+                        @Override
+                        public void dispose() {
+                            synchronized (LocationSpool.this) {
+                                emitters.remove(emitter);
+                            }
+                        }
+
+                        @Override
+                        public boolean isDisposed() {
+                            return false;
+                        }
+                    });
+
+                    // drains the spool until it's empty, so that no live location can overtake
+                    // a spooled one, before receiving live locations
+                    while (true) {
+                        final List<Location> locations;
+                        synchronized (LocationSpool.this) {
+                            locations = startDraining();
+                            if (locations.isEmpty()) {
+                                if (!emitter.isDisposed()) {
+                                    emitters.add(emitter);
+                                }
+                                return;
+                            }
+                        }
+
+                        final int size = locations.size();
+                        int emitted = 0;
+                        while (emitted < size && !emitter.isDisposed()) {
+                            emitter.onNext(locations.get(emitted++));
+                        }
+                        stopDraining(locations.subList(emitted, size));
+                        if (emitted < size) {
+                            return;
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (LocationSpool.this) {
+                        // the draining file is emitted again by the next subscriber
+                        draining = false;
+                    }
+                    emitter.onError(e);
+                }
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    public synchronized void clear() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        drainingFile.delete();
+    }
+
+    /**
+     * Emits the locations to the current subscribers if any, or appends them to the spool.
+     */
+    void offer(@NonNull List<Location> locations) throws IOException {
+        final List<ObservableEmitter<Location>> currentEmitters;
+        synchronized (this) {
+            if (emitters.isEmpty()) {
+                append(locations);
+                return;
+            }
+            currentEmitters = new ArrayList<>(emitters);
+        }
+
+        for (Location location : locations) {
+            for (int i = currentEmitters.size() - 1; i >= 0; --i) {
+                currentEmitters.get(i).onNext(location);
+            }
+        }
+    }
+
+    private void append(List<Location> locations) throws IOException {
+        if (file.length() / LocationStore.RECORD_SIZE + locations.size() > maxLocationCount) {
+            compact(locations);
+            return;
+        }
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            for (Location location : locations) {
+                outputStream.write(LocationStore.encode(location));
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Moves the spooled locations to the draining file, after the ones left there by a replay
+     * interrupted by the process dying.
+     *
+     * @return the locations to emit, or an empty list if there's none, or another subscriber is
+     * draining the spool
+     */
+    private List<Location> startDraining() throws IOException {
+        if (draining) {
+            return new ArrayList<>();
+        }
+        final List<Location> locations = read(drainingFile);
+        if (file.exists()) {
+            locations.addAll(read(file));
+            write(drainingFile, locations);
+            if (!file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+        }
+        if (locations.isEmpty()) {
+            //noinspection ResultOfMethodCallIgnored
+            drainingFile.delete();
+        } else {
+            draining = true;
+        }
+        return locations;
+    }
+
+    /**
+     * Puts the locations not emitted back in front of the ones spooled in the meantime, and deletes
+     * the draining file.
+     */
+    private synchronized void stopDraining(List<Location> locations) throws IOException {
+        if (!locations.isEmpty()) {
+            final List<Location> restoredLocations = new ArrayList<>(locations);
+            restoredLocations.addAll(read(file));
+            final int size = restoredLocations.size();
+            write(file, restoredLocations.subList(Math.max(0, size - maxLocationCount), size));
+        }
+        if (!drainingFile.delete()) {
+            throw new IOException("Failed to delete " + drainingFile);
+        }
+        draining = false;
+    }
+
+    /**
+     * Drops at least the oldest half of the spooled locations, so that the new ones fit.
+     */
+    private void compact(List<Location> locations) throws IOException {
+        final List<Location> spooledLocations = read(file);
+        final int spooledCount = spooledLocations.size();
+        final int keptCount = Math.max(0, Math.min(spooledCount,
+            Math.min(maxLocationCount / 2, maxLocationCount - locations.size())));
+        final List<Location> compactedLocations =
+            new ArrayList<>(spooledLocations.subList(spooledCount - keptCount, spooledCount));
+        compactedLocations.addAll(locations);
+        final int size = compactedLocations.size();
+        write(file, compactedLocations.subList(Math.max(0, size - maxLocationCount), size));
+    }
+
+    private static void write(File file, List<Location> locations) throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            for (Location location : locations) {
+                outputStream.write(LocationStore.encode(location));
+            }
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Failed to rename " + tempFile + " to " + file);
+        }
+    }
+
+    @NonNull
+    static List<Location> read(File file) throws IOException {
+        final List<Location> locations = new ArrayList<>();
+        if (!file.exists()) {
+            return locations;
+        }
+
+        final InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+        try {
+            final byte[] bytes = new byte[LocationStore.RECORD_SIZE];
+            while (LocationStore.readRecord(inputStream, bytes)) {
+                final Location location = LocationStore.decode(bytes);
+                if (location != null) {
+                    locations.add(location);
+                }
+            }
+        } finally {
+            inputStream.close();
+        }
+        return locations;
+    }
+}
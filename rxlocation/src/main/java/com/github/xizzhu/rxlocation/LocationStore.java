@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the best location from {@link LocationCache} to a small fixed-size file, so that it's
+ * available right after the process is restarted. The stored location is loaded, and writes are
+ * throttled and done, on the I/O scheduler.
+ */
+public final class LocationStore {
+    static final String PROVIDER = "rxlocation";
+    static final long DEFAULT_WRITE_INTERVAL_IN_MILLIS = 30000L;
+    // version, flags, latitude, longitude, altitude, accuracy, speed, bearing, time
+    static final int RECORD_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 4 + 8;
+
+    private static final String FILE_NAME = "rxlocation_last_location";
+    private static final int VERSION = 1;
+    private static final int FLAG_HAS_ACCURACY = 1;
+    private static final int FLAG_HAS_ALTITUDE = 1 << 1;
+    private static final int FLAG_HAS_SPEED = 1 << 2;
+    private static final int FLAG_HAS_BEARING = 1 << 3;
+
+    private static LocationStore instance;
+
+    final File file;
+    final Runnable loadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            loadStoredLocation();
+        }
+    };
+    final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingLocation();
+        }
+    };
+
+    private boolean loaded;
+    private Location storedLocation;
+    private Location pendingLocation;
+    private boolean writeScheduled;
+    private long lastWriteElapsedRealtime;
+    private long writeIntervalInMillis = DEFAULT_WRITE_INTERVAL_IN_MILLIS;
+
+    private LocationStore(Context context) {
+        file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * @return the store, which starts persisting locations from {@link LocationCache} once
+     * created.
+     */
+    @NonNull
+    public static synchronized LocationStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationStore(context);
+            Schedulers.io().scheduleDirect(instance.loadRunnable);
+            LocationCache.getInstance().setLocationStore(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Sets the minimum interval between two writes to the disk.
+     */
+    public synchronized void setWriteIntervalInMillis(long writeIntervalInMillis) {
+        this.writeIntervalInMillis = writeIntervalInMillis;
+    }
+
+    /**
+     * @return the stored location, or null if none is available. The location might be from a
+     * previous process, so check {@link #getLocationAgeInMillis()} before using it.
+     */
+    @Nullable
+    public Location getLocation() {
+        loadStoredLocation();
+        synchronized (this) {
+            final Location location = getBestLocation();
+            return location != null ? new Location(location) : null;
+        }
+    }
+
+    /**
+     * @return the age of the stored location in milliseconds, based on the wall clock, or
+     * {@link Long#MAX_VALUE} if none is available.
+     */
+    public long getLocationAgeInMillis() {
+        loadStoredLocation();
+        synchronized (this) {
+            final Location location = getBestLocation();
+            return location != null ? System.currentTimeMillis() - location.getTime()
+                : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Only compares with the locations in memory, as it's called with the lock of
+     * {@link LocationCache} held, often on the main thread. If the stored location is not loaded
+     * yet, the writer checks against it before writing.
+     */
+    synchronized void offer(@NonNull Location location) {
+        if (!LocationUtils.isBetterThan(location, getBestLocation())) {
+            return;
+        }
+        pendingLocation = location;
+
+        if (!writeScheduled) {
+            writeScheduled = true;
+            final long delay =
+                lastWriteElapsedRealtime + writeIntervalInMillis - SystemClock.elapsedRealtime();
+            if (lastWriteElapsedRealtime == 0L || delay <= 0L) {
+                Schedulers.io().scheduleDirect(writeRunnable);
+            } else {
+                Schedulers.io().scheduleDirect(writeRunnable, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    void writePendingLocation() {
+        loadStoredLocation();
+
+        final Location location;
+        synchronized (this) {
+            location = pendingLocation;
+            writeScheduled = false;
+            lastWriteElapsedRealtime = SystemClock.elapsedRealtime();
+            if (location == null) {
+                return;
+            }
+            if (!LocationUtils.isBetterThan(location, storedLocation)) {
+                pendingLocation = null;
+                return;
+            }
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(tempFile);
+            outputStream.write(encode(location));
+            outputStream.getFD().sync();
+            outputStream.close();
+            outputStream = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
+
+            synchronized (this) {
+                storedLocation = location;
+                loaded = true;
+                if (pendingLocation == location) {
+                    pendingLocation = null;
+                }
+            }
+        } catch (IOException e) {
+            // the stored location is only a hint, it's fine to skip this write
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the stored location from the disk, if not yet loaded, without holding the lock.
+     */
+    void loadStoredLocation() {
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+        }
+        final Location location = read(file);
+        synchronized (this) {
+            if (!loaded) {
+                loaded = true;
+                storedLocation = location;
+            }
+        }
+    }
+
+    @Nullable
+    private Location getBestLocation() {
+        if (pendingLocation == null) {
+            return storedLocation;
+        }
+        return LocationUtils.isBetterThan(pendingLocation, storedLocation) ? pendingLocation
+            : storedLocation;
+    }
+
+    @Nullable
+    static Location read(File file) {
+        if (file.length() != RECORD_SIZE) {
+            return null;
+        }
+
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            final byte[] bytes = new byte[RECORD_SIZE];
+            return readRecord(inputStream, bytes) ? decode(bytes) : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if a whole record is read into the given buffer, or false if the end of the
+     * stream is reached.
+     */
+    static boolean readRecord(InputStream inputStream, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < RECORD_SIZE) {
+            final int read = inputStream.read(bytes, offset, RECORD_SIZE - offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    @NonNull
+    static byte[] encode(@NonNull Location location) {
+        int flags = 0;
+        if (location.hasAccuracy()) {
+            flags |= FLAG_HAS_ACCURACY;
+        }
+        if (location.hasAltitude()) {
+            flags |= FLAG_HAS_ALTITUDE;
+        }
+        if (location.hasSpeed()) {
+            flags |= FLAG_HAS_SPEED;
+        }
+        if (location.hasBearing()) {
+            flags |= FLAG_HAS_BEARING;
+        }
+
+        return ByteBuffer.allocate(RECORD_SIZE)
+            .putInt(VERSION)
+            .putInt(flags)
+            .putDouble(location.getLatitude())
+            .putDouble(location.getLongitude())
+            .putDouble(location.getAltitude())
+            .putFloat(location.getAccuracy())
+            .putFloat(location.getSpeed())
+            .putFloat(location.getBearing())
+            .putLong(location.getTime())
+            .array();
+    }
+
+    @Nullable
+    static Location decode(@NonNull byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != VERSION) {
+            return null;
+        }
+
+        final int flags = buffer.getInt();
+        final Location location = new Location(PROVIDER);
+        location.setLatitude(buffer.getDouble());
+        location.setLongitude(buffer.getDouble());
+        final double altitude = buffer.getDouble();
+        if ((flags & FLAG_HAS_ALTITUDE) != 0) {
+            location.setAltitude(altitude);
+        }
+        final float accuracy = buffer.getFloat();
+        if ((flags & FLAG_HAS_ACCURACY) != 0) {
+            location.setAccuracy(accuracy);
+        }
+        final float speed = buffer.getFloat();
+        if ((flags & FLAG_HAS_SPEED) != 0) {
+            location.setSpeed(speed);
+        }
+        final float bearing = buffer.getFloat();
+        if ((flags & FLAG_HAS_BEARING) != 0) {
+            location.setBearing(bearing);
+        }
+        location.setTime(buffer.getLong());
+        return location;
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.app.PendingIntent;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multiplexes location update subscribers onto one {@link LocationManager} registration per
+ * provider. The registration always uses the most demanding request of all subscribers, and each
+ * subscriber filters the fixes by its own request. Fixes from different providers arriving
+ * within a short window are collapsed into the best one, so that subscribers don't get bursts.
+ * <p>
+ * There is one multiplexer per delivery looper in the process, shared by all
+ * {@link AndroidLocationProvider} instances using that looper. Subscribers with different
+ * delivery loopers get separate registrations.
+ */
+final class LocationUpdateMultiplexer implements LocationListener, Handler.Callback {
+    private static final float HIGH_ACCURACY_THRESHOLD = 50.0F;
+    private static final float BALANCED_POWER_ACCURACY_THRESHOLD = 100.0F;
+    private static final long BALANCED_POWER_GPS_UPDATE_MIN_TIME_IN_MILLI = 30000L;
+
+    // fixes arriving slightly earlier than the requested interval are still delivered
+    private static final float INTERVAL_TOLERANCE = 0.1F;
+
+    // GPS and network fixes are usually reported within this window of each other
+    private static final long COLLAPSE_WINDOW_IN_MILLIS = 200L;
+    private static final int MSG_FLUSH = 1;
+    private static final int MSG_RESET = 2;
+
+    private static final String[] PROVIDERS = {
+        LocationManager.PASSIVE_PROVIDER, LocationManager.NETWORK_PROVIDER,
+        LocationManager.GPS_PROVIDER
+    };
+
+    // keyed by the delivery looper, with the null key for the shared handler thread
+    private static final Map<Looper, LocationUpdateMultiplexer> instances = new HashMap<>();
+
+    abstract static class Subscriber {
+        final LocationUpdateRequest locationUpdateRequest;
+
+        Location lastLocation;
+        long lastElapsedRealtime;
+        long addedElapsedRealtime;
+
+        Subscriber(LocationUpdateRequest locationUpdateRequest) {
+            this.locationUpdateRequest = locationUpdateRequest;
+        }
+
+        void onLocationChanged(Location location, long elapsedRealtime) {
+            final int priority = locationUpdateRequest.getPriority();
+            final float accuracy = location.getAccuracy();
+            if ((priority == LocationUpdateRequest.PRIORITY_HIGH_ACCURACY
+                && accuracy > HIGH_ACCURACY_THRESHOLD) || (priority
+                == LocationUpdateRequest.PRIORITY_BALANCED_POWER_ACCURACY
+                && accuracy > BALANCED_POWER_ACCURACY_THRESHOLD)) {
+                LocationMetrics.listener().onLocationDropped(priority);
+                return;
+            }
+
+            if (lastLocation == null) {
+                LocationMetrics.listener()
+                    .onTimeToFirstFix(priority, elapsedRealtime - addedElapsedRealtime);
+            } else {
+                // same as Play Services, fixes can arrive faster than the interval, but never
+                // faster than the fastest interval
+                final long fastestInterval = locationUpdateRequest.getFastestIntervalInMillis();
+                final long minInterval = fastestInterval > 0L ? fastestInterval
+                    : (long) (locationUpdateRequest.getIntervalInMillis() * (1.0F
+                        - INTERVAL_TOLERANCE));
+                if (elapsedRealtime - lastElapsedRealtime < minInterval) {
+                    return;
+                }
+
+                final float smallestDistance = locationUpdateRequest.getSmallestDistanceInMeters();
+                if (smallestDistance > 0.0F
+                    && location.distanceTo(lastLocation) < smallestDistance) {
+                    return;
+                }
+            }
+
+            lastLocation = location;
+            lastElapsedRealtime = elapsedRealtime;
+            onNext(location);
+        }
+
+        /**
+         * Called on the delivery looper for every location passing this subscriber's filter.
+         */
+        abstract void onNext(Location location);
+    }
+
+    final LocationManager locationManager;
+    final ProviderStateTracker providerStateTracker;
+    @Nullable
+    final Looper deliveryLooper;
+    final List<Subscriber> subscribers = new ArrayList<>();
+
+    // copy of subscribers, so that dispatching a fix needs neither locking nor allocation
+    volatile Subscriber[] dispatchingSubscribers = new Subscriber[0];
+
+    LocationUpdateRequest registeredRequest;
+    Looper looper;
+
+    // handler on the looper, and whether fixes from GPS and network providers are collapsed
+    volatile Handler handler;
+    volatile boolean collapsing;
+    // only accessed on the looper
+    Location pendingLocation;
+    Location lastDispatchedLocation;
+
+    // when each provider was registered, or 0 if not registered, to report the registered duration
+    final long[] registeredElapsedRealtimes = new long[PROVIDERS.length];
+
+    /**
+     * @param deliveryLooper the looper to receive location updates, or null to use the shared
+     * {@link LocationHandlerThread} while there are registered subscribers.
+     */
+    LocationUpdateMultiplexer(LocationManager locationManager,
+        ProviderStateTracker providerStateTracker, @Nullable Looper deliveryLooper) {
+        this.locationManager = locationManager;
+        this.providerStateTracker = providerStateTracker;
+        this.deliveryLooper = deliveryLooper;
+    }
+
+    @NonNull
+    static LocationUpdateMultiplexer getInstance(LocationManager locationManager,
+        ProviderStateTracker providerStateTracker, @Nullable Looper deliveryLooper) {
+        synchronized (instances) {
+            LocationUpdateMultiplexer instance = instances.get(deliveryLooper);
+            if (instance == null) {
+                instance = new LocationUpdateMultiplexer(locationManager, providerStateTracker,
+                    deliveryLooper);
+                instances.put(deliveryLooper, instance);
+            }
+            return instance;
+        }
+    }
+
+    synchronized void add(Subscriber subscriber) {
+        subscriber.addedElapsedRealtime = SystemClock.elapsedRealtime();
+        subscribers.add(subscriber);
+        try {
+            updateRegistration();
+        } catch (RuntimeException e) {
+            subscribers.remove(subscriber);
+            updateRegistration();
+            throw e;
+        } finally {
+            dispatchingSubscribers = subscribers.toArray(new Subscriber[subscribers.size()]);
+        }
+    }
+
+    synchronized void remove(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            dispatchingSubscribers = subscribers.toArray(new Subscriber[subscribers.size()]);
+            updateRegistration();
+        }
+    }
+
+    private void updateRegistration() {
+        final LocationUpdateRequest mergedRequest = mergeRequests();
+        if (isSameRegistration(mergedRequest, registeredRequest)) {
+            if (mergedRequest == null) {
+                // the looper is kept if registering for the first subscriber failed
+                releaseLooper();
+            }
+            return;
+        }
+
+        if (registeredRequest != null) {
+            unregister();
+            registeredRequest = null;
+        }
+        if (mergedRequest != null) {
+            if (looper == null) {
+                looper = deliveryLooper != null ? deliveryLooper : LocationHandlerThread.acquire();
+                handler = new Handler(looper, this);
+                // the reset posted on teardown is dropped if the handler thread has quit
+                handler.sendEmptyMessage(MSG_RESET);
+            }
+            final int priority = mergedRequest.getPriority();
+            collapsing = priority == LocationUpdateRequest.PRIORITY_HIGH_ACCURACY
+                || priority == LocationUpdateRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+            try {
+                register(mergedRequest);
+            } catch (RuntimeException e) {
+                // drops the providers registered before the failure
+                unregister();
+                throw e;
+            }
+            registeredRequest = mergedRequest;
+        } else {
+            releaseLooper();
+        }
+    }
+
+    private void releaseLooper() {
+        if (looper == null) {
+            return;
+        }
+        // the pending and last dispatched fixes are only accessed on the looper
+        handler.removeMessages(MSG_FLUSH);
+        handler.sendEmptyMessage(MSG_RESET);
+        handler = null;
+        if (deliveryLooper == null) {
+            LocationHandlerThread.release();
+        }
+        looper = null;
+    }
+
+    @Nullable
+    private LocationUpdateRequest mergeRequests() {
+        final int size = subscribers.size();
+        if (size == 0) {
+            return null;
+        }
+
+        final LocationUpdateRequest first = subscribers.get(0).locationUpdateRequest;
+        int priority = first.getPriority();
+        long intervalInMillis = first.getIntervalInMillis();
+        float smallestDistanceInMeters = first.getSmallestDistanceInMeters();
+        for (int i = 1; i < size; ++i) {
+            final LocationUpdateRequest request = subscribers.get(i).locationUpdateRequest;
+            if (LocationUpdateRequest.rankPriority(request.getPriority())
+                < LocationUpdateRequest.rankPriority(priority)) {
+                priority = request.getPriority();
+            }
+            intervalInMillis = Math.min(intervalInMillis, request.getIntervalInMillis());
+            smallestDistanceInMeters =
+                Math.min(smallestDistanceInMeters, request.getSmallestDistanceInMeters());
+        }
+        return new LocationUpdateRequest.Builder().priority(priority)
+            .intervalInMillis(intervalInMillis)
+            .smallestDistanceInMeters(smallestDistanceInMeters)
+            .build();
+    }
+
+    private static boolean isSameRegistration(@Nullable LocationUpdateRequest requestA,
+        @Nullable LocationUpdateRequest requestB) {
+        if (requestA == null || requestB == null) {
+            return requestA == requestB;
+        }
+        return requestA.getPriority() == requestB.getPriority()
+            && requestA.getIntervalInMillis() == requestB.getIntervalInMillis()
+            && requestA.getSmallestDistanceInMeters() == requestB.getSmallestDistanceInMeters();
+    }
+
+    /**
+     * @return the min time between updates of the provider for the request, or -1 if the provider
+     * is not used.
+     */
+    static long getMinTime(@NonNull String provider, @NonNull LocationUpdateRequest request) {
+        final int priority = request.getPriority();
+        final long minTime = request.getIntervalInMillis();
+        if (LocationManager.PASSIVE_PROVIDER.equals(provider)) {
+            // we always use passive provider
+            return minTime;
+        } else if (LocationManager.NETWORK_PROVIDER.equals(provider)) {
+            // we use network provider, as long as it's not no power mode
+            return priority != LocationUpdateRequest.PRIORITY_NO_POWER ? minTime : -1L;
+        } else if (LocationManager.GPS_PROVIDER.equals(provider)) {
+            if (priority == LocationUpdateRequest.PRIORITY_BALANCED_POWER_ACCURACY) {
+                // for balanced mode, we enabled GPS provider, but less frequently
+                return Math.max(BALANCED_POWER_GPS_UPDATE_MIN_TIME_IN_MILLI, minTime * 2L);
+            } else if (priority == LocationUpdateRequest.PRIORITY_HIGH_ACCURACY) {
+                // for high accuracy mode, we fire GPS as frequently as requested
+                return minTime;
+            }
+        }
+        return -1L;
+    }
+
+    private void register(@NonNull LocationUpdateRequest request) {
+        final float minDistance = request.getSmallestDistanceInMeters();
+        for (int i = 0; i < PROVIDERS.length; ++i) {
+            final long minTime = getMinTime(PROVIDERS[i], request);
+            if (minTime >= 0L) {
+                //noinspection MissingPermission
+                locationManager.requestLocationUpdates(PROVIDERS[i], minTime, minDistance, this,
+                    looper);
+                registeredElapsedRealtimes[i] = onRegistered(PROVIDERS[i]);
+            }
+        }
+    }
+
+    /**
+     * Registers the pending intent with the same providers as location update subscribers, so it
+     * receives the updates even while the process is not running.
+     */
+    static void register(@NonNull LocationManager locationManager,
+        @NonNull LocationUpdateRequest request, @NonNull PendingIntent pendingIntent) {
+        final float minDistance = request.getSmallestDistanceInMeters();
+        for (String provider : PROVIDERS) {
+            final long minTime = getMinTime(provider, request);
+            if (minTime >= 0L) {
+                //noinspection MissingPermission
+                locationManager.requestLocationUpdates(provider, minTime, minDistance,
+                    pendingIntent);
+            }
+        }
+    }
+
+    private void unregister() {
+        //noinspection MissingPermission
+        locationManager.removeUpdates(this);
+
+        for (int i = 0; i < PROVIDERS.length; ++i) {
+            onUnregistered(PROVIDERS[i], registeredElapsedRealtimes[i]);
+            registeredElapsedRealtimes[i] = 0L;
+        }
+    }
+
+    private static long onRegistered(String provider) {
+        LocationMetrics.listener().onLocationUpdatesRegistered(provider);
+        return SystemClock.elapsedRealtime();
+    }
+
+    private static void onUnregistered(String provider, long registeredElapsedRealtime) {
+        if (registeredElapsedRealtime > 0L) {
+            LocationMetrics.listener()
+                .onLocationUpdatesUnregistered(provider,
+                    SystemClock.elapsedRealtime() - registeredElapsedRealtime);
+        }
+    }
+
+    @Override
+    public void onLocationChanged(Location location) {
+        LocationMetrics.listener().onLocationReceived(location.getProvider());
+        LocationCache.getInstance().put(location);
+
+        // the passive provider also reports the fixes of our own registrations
+        if (isSameFix(location, pendingLocation) || isSameFix(location, lastDispatchedLocation)) {
+            return;
+        }
+
+        final Handler handler = this.handler;
+        if (!collapsing || handler == null) {
+            dispatch(location);
+        } else if (pendingLocation == null || !handler.hasMessages(MSG_FLUSH)) {
+            pendingLocation = location;
+            handler.sendEmptyMessageDelayed(MSG_FLUSH, COLLAPSE_WINDOW_IN_MILLIS);
+        } else if (LocationUtils.isBetterThan(location, pendingLocation)) {
+            pendingLocation = location;
+        }
+    }
+
+    @Override
+    public boolean handleMessage(Message message) {
+        switch (message.what) {
+            case MSG_FLUSH:
+                final Location location = pendingLocation;
+                pendingLocation = null;
+                if (location != null) {
+                    dispatch(location);
+                }
+                return true;
+            case MSG_RESET:
+                pendingLocation = null;
+                lastDispatchedLocation = null;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void dispatch(Location location) {
+        lastDispatchedLocation = location;
+        final long elapsedRealtime = SystemClock.elapsedRealtime();
+        for (Subscriber subscriber : dispatchingSubscribers) {
+            subscriber.onLocationChanged(location, elapsedRealtime);
+        }
+    }
+
+    private static boolean isSameFix(Location locationA, @Nullable Location locationB) {
+        return locationB != null && locationA.getTime() == locationB.getTime()
+            && locationA.getLatitude() == locationB.getLatitude()
+            && locationA.getLongitude() == locationB.getLongitude();
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+        // do nothing
+    }
+
+    @Override
+    public void onProviderEnabled(String provider) {
+        providerStateTracker.setProviderEnabled(provider, true);
+    }
+
+    @Override
+    public void onProviderDisabled(String provider) {
+        providerStateTracker.setProviderEnabled(provider, false);
+    }
+}
@@ -73,6 +73,22 @@ public class LocationUpdateRequest {
         return smallestDistanceInMeters;
     }
 
+    /**
+     * @return the rank of the priority, where a lower rank means more accurate and more power.
+     */
+    static int rankPriority(int priority) {
+        switch (priority) {
+            case PRIORITY_HIGH_ACCURACY:
+                return 0;
+            case PRIORITY_BALANCED_POWER_ACCURACY:
+                return 1;
+            case PRIORITY_LOW_POWER:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
     @NonNull
     public Builder toBuilder() {
         return new Builder().priority(priority)
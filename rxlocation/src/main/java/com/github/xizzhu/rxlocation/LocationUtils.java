@@ -18,12 +18,12 @@ package com.github.xizzhu.rxlocation;
 
 import android.location.Location;
 import android.os.Build;
+import android.os.SystemClock;
 
 abstract class LocationUtils {
-    private static final long FRESHNESS_THRESHOLD_IN_NANOSECONDS = 30000000L; // 30 seconds
-
     /**
-     * @return true if location A is better than location B.
+     * @return true if location A is better than location B, as scored by the scorer of
+     * {@link LocationRanking}.
      */
     static boolean isBetterThan(Location locationA, Location locationB) {
         if (locationA == null) {
@@ -32,24 +32,30 @@ abstract class LocationUtils {
         if (locationB == null) {
             return true;
         }
+        LocationMetrics.listener().onLocationsRanked();
 
-        final long timeDiffInNanoseconds;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            timeDiffInNanoseconds =
-                locationA.getElapsedRealtimeNanos() - locationB.getElapsedRealtimeNanos();
-        } else {
-            timeDiffInNanoseconds = (locationA.getTime() - locationB.getTime()) * 1000L;
-        }
-        if (timeDiffInNanoseconds > FRESHNESS_THRESHOLD_IN_NANOSECONDS) {
-            return true;
-        }
+        final LocationScorer scorer = LocationRanking.getScorer();
+        return score(scorer, locationA) > score(scorer, locationB);
+    }
 
-        if (!locationA.hasAccuracy()) {
-            return false;
-        }
-        if (!locationB.hasAccuracy()) {
-            return true;
+    private static double score(LocationScorer scorer, Location location) {
+        final String provider = location.getProvider();
+        return scorer.score(provider != null ? provider : "",
+            location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+            getAgeInMillis(location), location.hasSpeed() ? location.getSpeed() : Float.NaN);
+    }
+
+    /**
+     * @return the age of the location in milliseconds.
+     */
+    static long getAgeInMillis(Location location) {
+        // locations restored from disk or built by apps may only have the wall clock time
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+            && location.getElapsedRealtimeNanos() > 0L) {
+            return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos())
+                / 1000000L;
+        } else {
+            return System.currentTimeMillis() - location.getTime();
         }
-        return locationA.getAccuracy() < locationB.getAccuracy();
     }
 }
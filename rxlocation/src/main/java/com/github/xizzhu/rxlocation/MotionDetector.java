@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+
+/**
+ * Decides whether the device is stationary, i.e. all fixes stay within a radius around an anchor
+ * for a given duration, and no fix reports a moving speed.
+ */
+final class MotionDetector {
+    private static final float MOVING_SPEED_IN_METERS_PER_SECOND = 1.0F;
+
+    final float stationaryRadiusInMeters;
+    final long stationaryDurationInMillis;
+
+    Location anchor;
+    boolean stationary;
+
+    MotionDetector(float stationaryRadiusInMeters, long stationaryDurationInMillis) {
+        this.stationaryRadiusInMeters = stationaryRadiusInMeters;
+        this.stationaryDurationInMillis = stationaryDurationInMillis;
+    }
+
+    /**
+     * @return true if the device is considered stationary after this fix.
+     */
+    boolean update(Location location) {
+        if (anchor == null) {
+            anchor = location;
+            return stationary;
+        }
+
+        // fixes are only reliable up to their accuracy
+        final float radius = stationaryRadiusInMeters + (location.hasAccuracy()
+            ? location.getAccuracy() : 0.0F);
+        final boolean moving = location.distanceTo(anchor) > radius || (location.hasSpeed()
+            && location.getSpeed() > MOVING_SPEED_IN_METERS_PER_SECOND);
+        if (moving) {
+            anchor = location;
+            stationary = false;
+        } else if (!stationary
+            && location.getTime() - anchor.getTime() >= stationaryDurationInMillis) {
+            stationary = true;
+        }
+        return stationary;
+    }
+}
@@ -21,6 +21,8 @@ import com.google.android.gms.common.api.GoogleApiClient;
 abstract class PlayServicesCallback
     implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     GoogleApiClient googleApiClient;
+    // the connection for which onConnected() was last called, managed by GoogleApiClientPool
+    int connectionGeneration;
 
     void setGoogleApiClient(GoogleApiClient googleApiClient) {
         this.googleApiClient = googleApiClient;
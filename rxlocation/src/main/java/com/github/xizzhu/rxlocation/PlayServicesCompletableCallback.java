@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.support.annotation.NonNull;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import io.reactivex.CompletableEmitter;
+
+abstract class PlayServicesCompletableCallback extends PlayServicesCallback {
+    final CompletableEmitter completable;
+
+    PlayServicesCompletableCallback(CompletableEmitter completable) {
+        this.completable = completable;
+    }
+
+    /**
+     * Completes, or fails, with the result of the given call.
+     */
+    void completeWith(PendingResult<Status> pendingResult) {
+        pendingResult.setResultCallback(new ResultCallback<Status>() {
+            @Override
+            public void onResult(@NonNull Status status) {
+                if (status.isSuccess()) {
+                    completable.onComplete();
+                } else {
+                    completable.onError(new IllegalStateException(
+                        "Request to Google Play Services failed: " + status.getStatusCode()));
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // do nothing, GoogleApiClientPool will reconnect and call onConnected() again
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        completable.onError(new IllegalStateException("Connection to Google Play Services failed"));
+    }
+}
@@ -29,7 +29,7 @@ abstract class PlayServicesEmitterCallback<T> extends PlayServicesCallback {
 
     @Override
     public void onConnectionSuspended(int cause) {
-        emitter.onError(new IllegalStateException("Connection to Google Play Services suspended"));
+        // do nothing, GoogleApiClientPool will reconnect and call onConnected() again
     }
 
     @Override
@@ -16,33 +16,82 @@
 
 package com.github.xizzhu.rxlocation;
 
+import android.app.PendingIntent;
 import android.content.Context;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationListener;
 import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.CompletableOnSubscribe;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.ObservableOnSubscribe;
 import io.reactivex.Single;
 import io.reactivex.SingleEmitter;
 import io.reactivex.SingleOnSubscribe;
+import io.reactivex.SingleSource;
 import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 public final class PlayServicesLocationProvider implements RxLocationProvider {
-    final Context applicationContext;
+    final GoogleApiClientPool googleApiClientPool;
+    final long connectionIdleTimeoutInMillis;
+    @Nullable
+    final Looper deliveryLooper;
+    final long cacheMaxAgeInMillis;
+    final float cacheAccuracyThresholdInMeters;
+    final SingleCoalescer<Location> lastLocationCoalescer;
 
     public PlayServicesLocationProvider(Context context) {
-        applicationContext = context.getApplicationContext();
+        this(new Builder(context));
     }
 
+    PlayServicesLocationProvider(Builder builder) {
+        googleApiClientPool = GoogleApiClientPool.getInstance(builder.context);
+        connectionIdleTimeoutInMillis = builder.connectionIdleTimeoutInMillis;
+        deliveryLooper = builder.deliveryLooper;
+        cacheMaxAgeInMillis = builder.cacheMaxAgeInMillis;
+        cacheAccuracyThresholdInMeters = builder.cacheAccuracyThresholdInMeters;
+        lastLocationCoalescer = new SingleCoalescer<>(queryLastLocation());
+    }
+
+    /**
+     * Concurrent calls share one lookup, and all receive its result.
+     */
     @NonNull
     @Override
     public Single<Location> getLastLocation() {
+        return Single.defer(new Callable<SingleSource<Location>>() {
+            @Override
+            public SingleSource<Location> call() throws Exception {
+                if (cacheMaxAgeInMillis > 0L) {
+                    final Location cachedLocation = LocationCache.getInstance()
+                        .get(cacheMaxAgeInMillis, cacheAccuracyThresholdInMeters);
+                    if (cachedLocation != null) {
+                        return Single.just(cachedLocation);
+                    }
+                }
+                return lastLocationCoalescer.get();
+            }
+        });
+    }
+
+    @NonNull
+    Single<Location> queryLastLocation() {
         return Single.create(new SingleOnSubscribe<Location>() {
             @Override
             public void subscribe(final SingleEmitter<Location> emitter) throws Exception {
@@ -56,6 +105,7 @@ public final class PlayServicesLocationProvider implements RxLocationProvider {
                                         LocationServices.FusedLocationApi.getLastLocation(
                                             googleApiClient);
                                     if (lastLocation != null) {
+                                        LocationCache.getInstance().put(lastLocation);
                                         emitter.onSuccess(lastLocation);
                                     } else {
                                         emitter.onError(new IllegalStateException(
@@ -67,14 +117,11 @@ public final class PlayServicesLocationProvider implements RxLocationProvider {
                             }
                         };
 
-                    final GoogleApiClient googleApiClient =
-                        buildGoogleApiClient(applicationContext, callback);
+                    googleApiClientPool.acquire(callback);
                     emitter.setDisposable(new Disposable() {
                         @Override
                         public void dispose() {
-                            if (googleApiClient.isConnected() || googleApiClient.isConnecting()) {
-                                googleApiClient.disconnect();
-                            }
+                            googleApiClientPool.release(callback, connectionIdleTimeoutInMillis);
                         }
 
                         @Override
@@ -89,15 +136,6 @@ public final class PlayServicesLocationProvider implements RxLocationProvider {
         });
     }
 
-    static GoogleApiClient buildGoogleApiClient(Context context, PlayServicesCallback callback) {
-        final GoogleApiClient googleApiClient =
-            new GoogleApiClient.Builder(context, callback, callback).addApi(LocationServices.API)
-                .build();
-        callback.setGoogleApiClient(googleApiClient);
-        googleApiClient.connect();
-        return googleApiClient;
-    }
-
     @NonNull
     @Override
     public Observable<Location> getLocationUpdates(
@@ -105,45 +143,278 @@ public final class PlayServicesLocationProvider implements RxLocationProvider {
         return Observable.create(new ObservableOnSubscribe<Location>() {
             @Override
             public void subscribe(final ObservableEmitter<Location> emitter) throws Exception {
+                boolean handlerThreadAcquired = false;
                 try {
+                    final Looper looper;
+                    if (deliveryLooper != null) {
+                        looper = deliveryLooper;
+                    } else {
+                        looper = LocationHandlerThread.acquire();
+                        handlerThreadAcquired = true;
+                    }
+                    final long subscribedElapsedRealtime = SystemClock.elapsedRealtime();
                     final LocationListener locationListener = new LocationListener() {
+                        boolean firstFixReported;
+
                         @Override
                         public void onLocationChanged(Location location) {
+                            onLocationReceived(locationUpdateRequest, subscribedElapsedRealtime,
+                                firstFixReported);
+                            firstFixReported = true;
+                            LocationCache.getInstance().put(location);
                             emitter.onNext(location);
                         }
                     };
 
+                    // the registration time, kept across reconnections to report its duration
+                    final long[] registeredElapsedRealtime = new long[1];
                     final PlayServicesCallback callback =
                         new PlayServicesEmitterCallback<Location>(emitter) {
                             @Override
                             public void onConnected(@Nullable Bundle connectionHint) {
                                 try {
-                                    final LocationRequest locationRequest = LocationRequest.create()
-                                        .setPriority(locationUpdateRequest.getPriority())
-                                        .setInterval(locationUpdateRequest.getIntervalInMillis())
-                                        .setFastestInterval(
-                                            locationUpdateRequest.getFastestIntervalInMillis())
-                                        .setMaxWaitTime(
-                                            locationUpdateRequest.getMaxWaitingTimeInMillis())
-                                        .setSmallestDisplacement(
-                                            locationUpdateRequest.getSmallestDistanceInMeters());
                                     //noinspection MissingPermission
                                     LocationServices.FusedLocationApi.requestLocationUpdates(
-                                        googleApiClient, locationRequest, locationListener);
+                                        googleApiClient,
+                                        buildLocationRequest(locationUpdateRequest),
+                                        locationListener, looper);
+                                    onRegistered(registeredElapsedRealtime);
+                                } catch (Throwable e) {
+                                    emitter.onError(e);
+                                }
+                            }
+                        };
+
+                    googleApiClientPool.acquire(callback);
+                    emitter.setDisposable(new Disposable() {
+                        @Override
+                        public void dispose() {
+                            final GoogleApiClient googleApiClient = callback.googleApiClient;
+                            if (googleApiClient != null && googleApiClient.isConnected()) {
+                                //noinspection MissingPermission
+                                LocationServices.FusedLocationApi.removeLocationUpdates(
+                                    googleApiClient, locationListener);
+                            }
+                            onUnregistered(registeredElapsedRealtime);
+                            googleApiClientPool.release(callback, connectionIdleTimeoutInMillis);
+                            if (deliveryLooper == null) {
+                                LocationHandlerThread.release();
+                            }
+                        }
+
+                        @Override
+                        public boolean isDisposed() {
+                            return false;
+                        }
+                    });
+                } catch (Throwable e) {
+                    if (handlerThreadAcquired) {
+                        LocationHandlerThread.release();
+                    }
+                    emitter.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getLocationUpdates(LocationUpdateRequest)}, but emits the locations in
+     * batches according to {@link LocationUpdateRequest#getMaxWaitingTimeInMillis()}.
+     */
+    @NonNull
+    public Observable<List<Location>> getLocationUpdatesBatched(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        return Observable.create(new ObservableOnSubscribe<List<Location>>() {
+            @Override
+            public void subscribe(final ObservableEmitter<List<Location>> emitter)
+                throws Exception {
+                boolean handlerThreadAcquired = false;
+                try {
+                    final Looper looper;
+                    if (deliveryLooper != null) {
+                        looper = deliveryLooper;
+                    } else {
+                        looper = LocationHandlerThread.acquire();
+                        handlerThreadAcquired = true;
+                    }
+                    final long subscribedElapsedRealtime = SystemClock.elapsedRealtime();
+                    final LocationCallback locationCallback = new LocationCallback() {
+                        boolean firstFixReported;
+
+                        @Override
+                        public void onLocationResult(LocationResult locationResult) {
+                            onLocationReceived(locationUpdateRequest, subscribedElapsedRealtime,
+                                firstFixReported);
+                            firstFixReported = true;
+                            LocationCache.getInstance().put(locationResult.getLastLocation());
+                            emitter.onNext(locationResult.getLocations());
+                        }
+                    };
+
+                    // the registration time, kept across reconnections to report its duration
+                    final long[] registeredElapsedRealtime = new long[1];
+                    final PlayServicesCallback callback =
+                        new PlayServicesEmitterCallback<List<Location>>(emitter) {
+                            @Override
+                            public void onConnected(@Nullable Bundle connectionHint) {
+                                try {
+                                    //noinspection MissingPermission
+                                    LocationServices.FusedLocationApi.requestLocationUpdates(
+                                        googleApiClient,
+                                        buildLocationRequest(locationUpdateRequest),
+                                        locationCallback, looper);
+                                    onRegistered(registeredElapsedRealtime);
+                                } catch (Throwable e) {
+                                    emitter.onError(e);
+                                }
+                            }
+                        };
+
+                    googleApiClientPool.acquire(callback);
+                    emitter.setDisposable(new Disposable() {
+                        @Override
+                        public void dispose() {
+                            final GoogleApiClient googleApiClient = callback.googleApiClient;
+                            if (googleApiClient != null && googleApiClient.isConnected()) {
+                                //noinspection MissingPermission
+                                LocationServices.FusedLocationApi.removeLocationUpdates(
+                                    googleApiClient, locationCallback);
+                            }
+                            onUnregistered(registeredElapsedRealtime);
+                            googleApiClientPool.release(callback, connectionIdleTimeoutInMillis);
+                            if (deliveryLooper == null) {
+                                LocationHandlerThread.release();
+                            }
+                        }
+
+                        @Override
+                        public boolean isDisposed() {
+                            return false;
+                        }
+                    });
+                } catch (Throwable e) {
+                    if (handlerThreadAcquired) {
+                        LocationHandlerThread.release();
+                    }
+                    emitter.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Connects to Google Play Services ahead of the first subscriber, e.g. during app startup, and
+     * primes {@link LocationCache} with the last location. It completes once connected, and the
+     * connection is then kept for the connection idle timeout, so that a subscriber within it
+     * issues its request immediately. The hidden connection latency is reported to
+     * {@link LocationMetrics}.
+     */
+    @NonNull
+    public Completable prewarm() {
+        return Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(final CompletableEmitter emitter) throws Exception {
+                try {
+                    final PlayServicesCallback callback =
+                        new PlayServicesCompletableCallback(emitter) {
+                            @Override
+                            public void onConnected(@Nullable Bundle connectionHint) {
+                                try {
+                                    @SuppressWarnings("MissingPermission") Location lastLocation =
+                                        LocationServices.FusedLocationApi.getLastLocation(
+                                            googleApiClient);
+                                    if (lastLocation != null) {
+                                        LocationCache.getInstance().put(lastLocation);
+                                    }
+                                    emitter.onComplete();
                                 } catch (Throwable e) {
                                     emitter.onError(e);
                                 }
                             }
                         };
 
-                    final GoogleApiClient googleApiClient =
-                        buildGoogleApiClient(applicationContext, callback);
+                    googleApiClientPool.prewarm(callback);
                     emitter.setDisposable(new Disposable() {
                         @Override
                         public void dispose() {
-                            if (googleApiClient.isConnected() || googleApiClient.isConnecting()) {
-                                googleApiClient.disconnect();
+                            googleApiClientPool.release(callback, connectionIdleTimeoutInMillis);
+                        }
+
+                        @Override
+                        public boolean isDisposed() {
+                            return false;
+                        }
+                    });
+                } catch (Throwable e) {
+                    emitter.onError(e);
+                }
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Requests location updates that are received even while the process is not running, and kept
+     * in {@link LocationSpool} until emitted by {@link LocationSpool#getLocations()}. The request
+     * replaces the previous one, and stays active until
+     * {@link #removeBackgroundLocationUpdates()} is called.
+     */
+    @NonNull
+    public Completable requestBackgroundLocationUpdates(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        return callWithPendingIntent(new PendingIntentCall() {
+            @Override
+            public PendingResult<Status> call(GoogleApiClient googleApiClient,
+                PendingIntent pendingIntent) {
+                //noinspection MissingPermission
+                return LocationServices.FusedLocationApi.requestLocationUpdates(googleApiClient,
+                    buildLocationRequest(locationUpdateRequest), pendingIntent);
+            }
+        });
+    }
+
+    @NonNull
+    public Completable removeBackgroundLocationUpdates() {
+        return callWithPendingIntent(new PendingIntentCall() {
+            @Override
+            public PendingResult<Status> call(GoogleApiClient googleApiClient,
+                PendingIntent pendingIntent) {
+                return LocationServices.FusedLocationApi.removeLocationUpdates(googleApiClient,
+                    pendingIntent);
+            }
+        });
+    }
+
+    interface PendingIntentCall {
+        PendingResult<Status> call(GoogleApiClient googleApiClient, PendingIntent pendingIntent);
+    }
+
+    @NonNull
+    Completable callWithPendingIntent(@NonNull final PendingIntentCall pendingIntentCall) {
+        return Completable.create(new CompletableOnSubscribe() {
+            @Override
+            public void subscribe(final CompletableEmitter emitter) throws Exception {
+                try {
+                    final PendingIntent pendingIntent = BackgroundLocationReceiver.getPendingIntent(
+                        googleApiClientPool.applicationContext,
+                        BackgroundLocationReceiver.REQUEST_CODE_PLAY_SERVICES);
+                    final PlayServicesCallback callback =
+                        new PlayServicesCompletableCallback(emitter) {
+                            @Override
+                            public void onConnected(@Nullable Bundle connectionHint) {
+                                try {
+                                    completeWith(
+                                        pendingIntentCall.call(googleApiClient, pendingIntent));
+                                } catch (Throwable e) {
+                                    emitter.onError(e);
+                                }
                             }
+                        };
+
+                    googleApiClientPool.acquire(callback);
+                    emitter.setDisposable(new Disposable() {
+                        @Override
+                        public void dispose() {
+                            googleApiClientPool.release(callback, connectionIdleTimeoutInMillis);
                         }
 
                         @Override
@@ -157,4 +428,105 @@ public final class PlayServicesLocationProvider implements RxLocationProvider {
             }
         });
     }
+
+    static void onLocationReceived(LocationUpdateRequest locationUpdateRequest,
+        long subscribedElapsedRealtime, boolean firstFixReported) {
+        final LocationMetricsListener metrics = LocationMetrics.listener();
+        metrics.onLocationReceived(LocationMetrics.PROVIDER_FUSED);
+        if (!firstFixReported) {
+            metrics.onTimeToFirstFix(locationUpdateRequest.getPriority(),
+                SystemClock.elapsedRealtime() - subscribedElapsedRealtime);
+        }
+    }
+
+    static void onRegistered(long[] registeredElapsedRealtime) {
+        synchronized (registeredElapsedRealtime) {
+            if (registeredElapsedRealtime[0] == 0L) {
+                registeredElapsedRealtime[0] = SystemClock.elapsedRealtime();
+                LocationMetrics.listener()
+                    .onLocationUpdatesRegistered(LocationMetrics.PROVIDER_FUSED);
+            }
+        }
+    }
+
+    static void onUnregistered(long[] registeredElapsedRealtime) {
+        synchronized (registeredElapsedRealtime) {
+            if (registeredElapsedRealtime[0] > 0L) {
+                LocationMetrics.listener()
+                    .onLocationUpdatesUnregistered(LocationMetrics.PROVIDER_FUSED,
+                        SystemClock.elapsedRealtime() - registeredElapsedRealtime[0]);
+                registeredElapsedRealtime[0] = 0L;
+            }
+        }
+    }
+
+    static LocationRequest buildLocationRequest(LocationUpdateRequest locationUpdateRequest) {
+        return LocationRequest.create()
+            .setPriority(locationUpdateRequest.getPriority())
+            .setInterval(locationUpdateRequest.getIntervalInMillis())
+            .setFastestInterval(locationUpdateRequest.getFastestIntervalInMillis())
+            .setMaxWaitTime(locationUpdateRequest.getMaxWaitingTimeInMillis())
+            .setSmallestDisplacement(locationUpdateRequest.getSmallestDistanceInMeters());
+    }
+
+    public static class Builder {
+        final Context context;
+        long connectionIdleTimeoutInMillis = GoogleApiClientPool.DEFAULT_IDLE_TIMEOUT_IN_MILLIS;
+        @Nullable
+        Looper deliveryLooper = Looper.getMainLooper();
+
+        long cacheMaxAgeInMillis;
+        float cacheAccuracyThresholdInMeters;
+
+        public Builder(Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        /**
+         * Sets how long the shared connection to Google Play Services is kept after the last
+         * subscriber is disposed, so that new subscribers can skip the connection latency.
+         */
+        @NonNull
+        public Builder connectionIdleTimeoutInMillis(long connectionIdleTimeoutInMillis) {
+            this.connectionIdleTimeoutInMillis = connectionIdleTimeoutInMillis;
+            return this;
+        }
+
+        /**
+         * Sets the looper on which location updates are received and emitted. By default, the main
+         * looper is used.
+         */
+        @NonNull
+        public Builder deliveryLooper(@NonNull Looper deliveryLooper) {
+            this.deliveryLooper = deliveryLooper;
+            return this;
+        }
+
+        /**
+         * Receives and emits location updates on a background thread owned by the library, which
+         * is shared by all subscribers and quits when the last one is disposed.
+         */
+        @NonNull
+        public Builder deliverOnBackgroundThread() {
+            this.deliveryLooper = null;
+            return this;
+        }
+
+        /**
+         * Lets {@link PlayServicesLocationProvider#getLastLocation()} return the location from
+         * {@link LocationCache} without querying the platform, if it's not older than the given
+         * max age and its accuracy is within the given threshold.
+         */
+        @NonNull
+        public Builder useLocationCache(long maxAgeInMillis, float accuracyThresholdInMeters) {
+            this.cacheMaxAgeInMillis = maxAgeInMillis;
+            this.cacheAccuracyThresholdInMeters = accuracyThresholdInMeters;
+            return this;
+        }
+
+        @NonNull
+        public PlayServicesLocationProvider build() {
+            return new PlayServicesLocationProvider(this);
+        }
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.LocationManager;
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks which location providers are enabled, from the provider callbacks of
+ * {@link LocationUpdateMultiplexer} and the providers changed broadcast, so that they needn't be
+ * queried for every lookup.
+ */
+final class ProviderStateTracker extends BroadcastReceiver {
+    private static ProviderStateTracker instance;
+
+    final LocationManager locationManager;
+    final Set<String> enabledProviders = new HashSet<>();
+
+    private boolean loaded;
+
+    private ProviderStateTracker(LocationManager locationManager) {
+        this.locationManager = locationManager;
+    }
+
+    static synchronized ProviderStateTracker getInstance(Context context) {
+        if (instance == null) {
+            final Context applicationContext = context.getApplicationContext();
+            instance = new ProviderStateTracker(
+                (LocationManager) applicationContext.getSystemService(Context.LOCATION_SERVICE));
+            applicationContext.registerReceiver(instance,
+                new IntentFilter(LocationManager.PROVIDERS_CHANGED_ACTION));
+        }
+        return instance;
+    }
+
+    @NonNull
+    synchronized List<String> getEnabledProviders() {
+        if (!loaded) {
+            reload();
+        }
+        return new ArrayList<>(enabledProviders);
+    }
+
+    synchronized void setProviderEnabled(String provider, boolean enabled) {
+        if (!loaded) {
+            return;
+        }
+        if (enabled) {
+            enabledProviders.add(provider);
+        } else {
+            enabledProviders.remove(provider);
+        }
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        synchronized (this) {
+            loaded = false;
+        }
+    }
+
+    private void reload() {
+        enabledProviders.clear();
+        enabledProviders.addAll(locationManager.getProviders(true));
+        loaded = true;
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableEmitter;
+import io.reactivex.ObservableOnSubscribe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+import io.reactivex.SingleOnSubscribe;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recorded or generated track, without using any platform location service. The time
+ * between two fixes is taken from {@link Location#getTime()}, and divided by the speed factor.
+ * Use a {@link io.reactivex.schedulers.TestScheduler} as the scheduler to replay on a virtual
+ * clock. Each subscriber receives its own copies of the fixes, stamped with the elapsed realtime
+ * on the replay's clock, i.e. the elapsed realtime when the replay started plus the track's time
+ * since the first fix divided by the speed factor, or not divided when replaying as fast as
+ * possible.
+ */
+public final class ReplayLocationProvider implements RxLocationProvider {
+    /**
+     * Speed factor to replay the track as fast as possible.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    private static final double EARTH_RADIUS_IN_METERS = 6371009.0;
+
+    final List<Location> track;
+    final double speedFactor;
+    final Scheduler scheduler;
+
+    volatile Location lastLocation;
+
+    public ReplayLocationProvider(@NonNull List<Location> track) {
+        this(new Builder(track));
+    }
+
+    ReplayLocationProvider(Builder builder) {
+        track = builder.track;
+        speedFactor = builder.speedFactor;
+        scheduler = builder.scheduler;
+    }
+
+    @NonNull
+    @Override
+    public Single<Location> getLastLocation() {
+        return Single.create(new SingleOnSubscribe<Location>() {
+            @Override
+            public void subscribe(SingleEmitter<Location> emitter) throws Exception {
+                final Location location = lastLocation;
+                if (location != null) {
+                    emitter.onSuccess(new Location(location));
+                } else {
+                    emitter.onError(new IllegalStateException("No last location available"));
+                }
+            }
+        });
+    }
+
+    @NonNull
+    @Override
+    public Observable<Location> getLocationUpdates(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        return Observable.create(new ObservableOnSubscribe<Location>() {
+            @Override
+            public void subscribe(final ObservableEmitter<Location> emitter) throws Exception {
+                final Replayer replayer = new Replayer(locationUpdateRequest) {
+                    @Override
+                    void onNext(Location location) {
+                        emitter.onNext(location);
+                    }
+
+                    @Override
+                    void onComplete() {
+                        emitter.onComplete();
+                    }
+                };
+                emitter.setDisposable(replayer);
+                replayer.start();
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #getLocationUpdates(LocationUpdateRequest)}, but emits the locations in
+     * batches according to {@link LocationUpdateRequest#getMaxWaitingTimeInMillis()}.
+     */
+    @NonNull
+    public Observable<List<Location>> getLocationUpdatesBatched(
+        @NonNull final LocationUpdateRequest locationUpdateRequest) {
+        return Observable.create(new ObservableOnSubscribe<List<Location>>() {
+            @Override
+            public void subscribe(final ObservableEmitter<List<Location>> emitter)
+                throws Exception {
+                // same as Play Services, batching is disabled if max waiting time is less than 2
+                // intervals
+                final long maxWaitingTimeInMillis =
+                    locationUpdateRequest.getMaxWaitingTimeInMillis()
+                        >= locationUpdateRequest.getIntervalInMillis() * 2L
+                        ? locationUpdateRequest.getMaxWaitingTimeInMillis() : 0L;
+                final Replayer replayer = new Replayer(locationUpdateRequest) {
+                    private List<Location> batch;
+
+                    @Override
+                    void onNext(Location location) {
+                        if (maxWaitingTimeInMillis == 0L) {
+                            emitter.onNext(Collections.singletonList(location));
+                            return;
+                        }
+
+                        if (batch != null && location.getTime() - batch.get(0).getTime()
+                            > maxWaitingTimeInMillis) {
+                            emitter.onNext(batch);
+                            batch = null;
+                        }
+                        if (batch == null) {
+                            batch = new ArrayList<>();
+                        }
+                        batch.add(location);
+                    }
+
+                    @Override
+                    void onComplete() {
+                        if (batch != null) {
+                            emitter.onNext(batch);
+                            batch = null;
+                        }
+                        emitter.onComplete();
+                    }
+                };
+                emitter.setDisposable(replayer);
+                replayer.start();
+            }
+        });
+    }
+
+    /**
+     * Walks through the track on the scheduler, and filters the fixes by the request's interval
+     * and smallest distance, based on the track's own time.
+     */
+    abstract class Replayer implements Runnable, Disposable {
+        final LocationUpdateRequest locationUpdateRequest;
+        final Scheduler.Worker worker = scheduler.createWorker();
+
+        int index;
+        Location lastEmittedLocation;
+
+        // the first emitted fix's track time and elapsed realtime, and the last fix's stamp
+        long startTime;
+        long startElapsedRealtimeNanos;
+        long lastElapsedRealtimeNanos;
+
+        Replayer(LocationUpdateRequest locationUpdateRequest) {
+            this.locationUpdateRequest = locationUpdateRequest;
+        }
+
+        void start() {
+            worker.schedule(this);
+        }
+
+        @Override
+        public void run() {
+            if (worker.isDisposed()) {
+                return;
+            }
+            if (index >= track.size()) {
+                onComplete();
+                return;
+            }
+
+            final Location location = track.get(index++);
+            if (lastEmittedLocation == null || (
+                location.getTime() - lastEmittedLocation.getTime()
+                    >= locationUpdateRequest.getIntervalInMillis()
+                    && location.distanceTo(lastEmittedLocation)
+                    >= locationUpdateRequest.getSmallestDistanceInMeters())) {
+                if (lastEmittedLocation == null) {
+                    startTime = location.getTime();
+                    startElapsedRealtimeNanos = SystemClock.elapsedRealtime() * 1000000L;
+                }
+                lastEmittedLocation = location;
+                final double timeScale = Double.isInfinite(speedFactor) ? 1.0 : speedFactor;
+                lastElapsedRealtimeNanos = startElapsedRealtimeNanos
+                    + (long) ((location.getTime() - startTime) * 1000000.0 / timeScale);
+
+                final Location replayedLocation = new Location(location);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                    replayedLocation.setElapsedRealtimeNanos(lastElapsedRealtimeNanos);
+                }
+                lastLocation = replayedLocation;
+                onNext(replayedLocation);
+            }
+
+            if (index < track.size() && !Double.isInfinite(speedFactor)) {
+                final long delay = (long) ((track.get(index).getTime() - location.getTime())
+                    / speedFactor);
+                worker.schedule(this, Math.max(0L, delay), TimeUnit.MILLISECONDS);
+            } else {
+                worker.schedule(this);
+            }
+        }
+
+        abstract void onNext(Location location);
+
+        abstract void onComplete();
+
+        @Override
+        public void dispose() {
+            worker.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return worker.isDisposed();
+        }
+    }
+
+    /**
+     * Reads a track from CSV, where each line is
+     * {@code time,latitude,longitude[,accuracy[,altitude[,speed[,bearing]]]]}, with the time in
+     * milliseconds. Empty lines and lines starting with {@code #} are skipped.
+     */
+    @NonNull
+    public static List<Location> readCsv(@NonNull Reader reader) throws IOException {
+        final BufferedReader bufferedReader = new BufferedReader(reader);
+        final List<Location> track = new ArrayList<>();
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#') {
+                continue;
+            }
+
+            final String[] columns = line.split(",");
+            if (columns.length < 3) {
+                throw new IOException("Malformed line: " + line);
+            }
+            try {
+                final Location location = new Location(LocationStore.PROVIDER);
+                location.setTime(Long.parseLong(columns[0].trim()));
+                location.setLatitude(Double.parseDouble(columns[1].trim()));
+                location.setLongitude(Double.parseDouble(columns[2].trim()));
+                if (columns.length > 3) {
+                    location.setAccuracy(Float.parseFloat(columns[3].trim()));
+                }
+                if (columns.length > 4) {
+                    location.setAltitude(Double.parseDouble(columns[4].trim()));
+                }
+                if (columns.length > 5) {
+                    location.setSpeed(Float.parseFloat(columns[5].trim()));
+                }
+                if (columns.length > 6) {
+                    location.setBearing(Float.parseFloat(columns[6].trim()));
+                }
+                track.add(location);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed line: " + line, e);
+            }
+        }
+        return track;
+    }
+
+    /**
+     * Reads a track written by {@link #writeBinary(List, OutputStream)}.
+     */
+    @NonNull
+    public static List<Location> readBinary(@NonNull InputStream inputStream) throws IOException {
+        final List<Location> track = new ArrayList<>();
+        final byte[] bytes = new byte[LocationStore.RECORD_SIZE];
+        while (LocationStore.readRecord(inputStream, bytes)) {
+            final Location location = LocationStore.decode(bytes);
+            if (location == null) {
+                throw new IOException("Unsupported record version");
+            }
+            track.add(location);
+        }
+        return track;
+    }
+
+    /**
+     * Writes the track as a sequence of fixed-size binary records.
+     */
+    public static void writeBinary(@NonNull List<Location> track,
+        @NonNull OutputStream outputStream) throws IOException {
+        for (Location location : track) {
+            outputStream.write(LocationStore.encode(location));
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Generates a track moving from the start location with constant speed and bearing, with one
+     * fix every interval.
+     */
+    @NonNull
+    public static List<Location> generateTrack(@NonNull Location start,
+        float speedInMetersPerSecond, float bearingInDegrees, long intervalInMillis, int count) {
+        final double bearing = Math.toRadians(bearingInDegrees);
+        final double stepInMeters = speedInMetersPerSecond * intervalInMillis / 1000.0;
+        final double latitudeStep = Math.toDegrees(stepInMeters * Math.cos(bearing)
+            / EARTH_RADIUS_IN_METERS);
+        final double longitudeStepAtEquator =
+            Math.toDegrees(stepInMeters * Math.sin(bearing) / EARTH_RADIUS_IN_METERS);
+
+        final List<Location> track = new ArrayList<>(count);
+        double latitude = start.getLatitude();
+        double longitude = start.getLongitude();
+        for (int i = 0; i < count; ++i) {
+            final Location location = new Location(LocationStore.PROVIDER);
+            location.setLatitude(latitude);
+            location.setLongitude(longitude);
+            location.setTime(start.getTime() + i * intervalInMillis);
+            location.setSpeed(speedInMetersPerSecond);
+            location.setBearing(bearingInDegrees);
+            if (start.hasAccuracy()) {
+                location.setAccuracy(start.getAccuracy());
+            }
+            track.add(location);
+
+            longitude += longitudeStepAtEquator / Math.cos(Math.toRadians(latitude));
+            latitude += latitudeStep;
+        }
+        return track;
+    }
+
+    public static class Builder {
+        final List<Location> track;
+        double speedFactor = 1.0;
+        Scheduler scheduler = Schedulers.computation();
+
+        public Builder(@NonNull List<Location> track) {
+            this.track = Collections.unmodifiableList(new ArrayList<>(track));
+        }
+
+        /**
+         * Sets how many times faster than the recorded time the track is replayed, or
+         * {@link #AS_FAST_AS_POSSIBLE}. By default, it's replayed in real time.
+         */
+        @NonNull
+        public Builder speedFactor(double speedFactor) {
+            if (!(speedFactor > 0.0)) {
+                throw new IllegalArgumentException("Speed factor must be positive");
+            }
+            this.speedFactor = speedFactor;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler to replay the track on. By default, the computation scheduler is
+         * used.
+         */
+        @NonNull
+        public Builder scheduler(@NonNull Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        @NonNull
+        public ReplayLocationProvider build() {
+            return new ReplayLocationProvider(this);
+        }
+    }
+}
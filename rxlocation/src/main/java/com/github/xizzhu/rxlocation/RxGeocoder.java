@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.Context;
+import android.location.Address;
+import android.support.annotation.NonNull;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Geocodes and reverse geocodes on a bounded scheduler. Concurrent identical lookups share one
+ * call to the {@link GeocodingService}, and the results are kept in an LRU cache. Reverse geocoding
+ * results are cached per geohash cell, so that nearby coordinates are served from memory.
+ */
+public final class RxGeocoder {
+    static final int DEFAULT_MAX_RESULTS = 1;
+    static final int DEFAULT_GEOHASH_PRECISION = 7; // about 150 x 150 meters
+    static final int DEFAULT_CACHE_SIZE = 100;
+
+    private static final int MAX_CONCURRENT_LOOKUPS = 2;
+    private static final char[] GEOHASH_BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private static Scheduler defaultScheduler;
+
+    final GeocodingService geocodingService;
+    final Scheduler scheduler;
+    final int maxResults;
+    final int geohashPrecision;
+    final Map<String, Single<List<Address>>> inFlightLookups = new HashMap<>();
+    final LinkedHashMap<String, List<Address>> cache;
+
+    public RxGeocoder(Context context) {
+        this(new Builder(context));
+    }
+
+    RxGeocoder(Builder builder) {
+        geocodingService = builder.geocodingService != null ? builder.geocodingService
+            : new AndroidGeocodingService(builder.context);
+        scheduler = builder.scheduler != null ? builder.scheduler : getDefaultScheduler();
+        maxResults = builder.maxResults;
+        geohashPrecision = builder.geohashPrecision;
+
+        final int cacheSize = builder.cacheSize;
+        cache = new LinkedHashMap<String, List<Address>>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Address>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    private static synchronized Scheduler getDefaultScheduler() {
+        if (defaultScheduler == null) {
+            defaultScheduler = Schedulers.from(
+                Executors.newFixedThreadPool(MAX_CONCURRENT_LOOKUPS, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "RxGeocoder");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }));
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * @return the addresses near the given coordinate, which can be empty.
+     */
+    @NonNull
+    public Single<List<Address>> getFromLocation(final double latitude, final double longitude) {
+        return lookup("r:" + encodeGeohash(latitude, longitude, geohashPrecision),
+            new Callable<List<Address>>() {
+                @Override
+                public List<Address> call() throws Exception {
+                    return geocodingService.getFromLocation(latitude, longitude, maxResults);
+                }
+            });
+    }
+
+    /**
+     * @return the addresses matching the given name, which can be empty.
+     */
+    @NonNull
+    public Single<List<Address>> getFromLocationName(@NonNull final String locationName) {
+        return lookup("f:" + locationName.trim().toLowerCase(Locale.US),
+            new Callable<List<Address>>() {
+                @Override
+                public List<Address> call() throws Exception {
+                    return geocodingService.getFromLocationName(locationName, maxResults);
+                }
+            });
+    }
+
+    public synchronized void clearCache() {
+        cache.clear();
+    }
+
+    @NonNull
+    Single<List<Address>> lookup(final String key, final Callable<List<Address>> callable) {
+        return Single.defer(new Callable<SingleSource<List<Address>>>() {
+            @Override
+            public SingleSource<List<Address>> call() throws Exception {
+                synchronized (RxGeocoder.this) {
+                    final List<Address> cachedAddresses = cache.get(key);
+                    if (cachedAddresses != null) {
+                        return Single.just(cachedAddresses);
+                    }
+
+                    Single<List<Address>> inFlightLookup = inFlightLookups.get(key);
+                    if (inFlightLookup == null) {
+                        inFlightLookup = Single.fromCallable(callable)
+                            .subscribeOn(scheduler)
+                            .doOnSuccess(new Consumer<List<Address>>() {
+                                @Override
+                                public void accept(List<Address> addresses) throws Exception {
+                                    synchronized (RxGeocoder.this) {
+                                        inFlightLookups.remove(key);
+                                        cache.put(key, addresses);
+                                    }
+                                }
+                            })
+                            .doOnError(new Consumer<Throwable>() {
+                                @Override
+                                public void accept(Throwable throwable) throws Exception {
+                                    synchronized (RxGeocoder.this) {
+                                        inFlightLookups.remove(key);
+                                    }
+                                }
+                            })
+                            .cache();
+                        inFlightLookups.put(key, inFlightLookup);
+                    }
+                    return inFlightLookup;
+                }
+            }
+        });
+    }
+
+    @NonNull
+    static String encodeGeohash(double latitude, double longitude, int precision) {
+        final char[] geohash = new char[precision];
+        double minLatitude = -90.0;
+        double maxLatitude = 90.0;
+        double minLongitude = -180.0;
+        double maxLongitude = 180.0;
+        boolean isLongitude = true;
+        for (int i = 0; i < precision; ++i) {
+            int index = 0;
+            for (int bit = 0; bit < 5; ++bit) {
+                index <<= 1;
+                if (isLongitude) {
+                    final double middle = (minLongitude + maxLongitude) / 2.0;
+                    if (longitude >= middle) {
+                        index |= 1;
+                        minLongitude = middle;
+                    } else {
+                        maxLongitude = middle;
+                    }
+                } else {
+                    final double middle = (minLatitude + maxLatitude) / 2.0;
+                    if (latitude >= middle) {
+                        index |= 1;
+                        minLatitude = middle;
+                    } else {
+                        maxLatitude = middle;
+                    }
+                }
+                isLongitude = !isLongitude;
+            }
+            geohash[i] = GEOHASH_BASE32[index];
+        }
+        return new String(geohash);
+    }
+
+    public static class Builder {
+        final Context context;
+        GeocodingService geocodingService;
+        Scheduler scheduler;
+        int maxResults = DEFAULT_MAX_RESULTS;
+        int geohashPrecision = DEFAULT_GEOHASH_PRECISION;
+        int cacheSize = DEFAULT_CACHE_SIZE;
+
+        public Builder(Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        /**
+         * Sets the service to resolve addresses, e.g. a local one for tests. By default, the
+         * platform {@link android.location.Geocoder} is used.
+         */
+        @NonNull
+        public Builder geocodingService(@NonNull GeocodingService geocodingService) {
+            this.geocodingService = geocodingService;
+            return this;
+        }
+
+        /**
+         * Sets the scheduler to run lookups. By default, a scheduler shared by all instances runs
+         * at most 2 lookups at the same time.
+         */
+        @NonNull
+        public Builder scheduler(@NonNull Scheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Sets the max number of addresses returned by each lookup. By default, it's 1.
+         */
+        @NonNull
+        public Builder maxResults(int maxResults) {
+            if (maxResults < 1) {
+                throw new IllegalArgumentException("Max results must be positive");
+            }
+            this.maxResults = maxResults;
+            return this;
+        }
+
+        /**
+         * Sets the precision of the geohash cells for reverse geocoding results, from 1 to 12. By
+         * default, it's 7, i.e. cells of about 150 x 150 meters.
+         */
+        @NonNull
+        public Builder geohashPrecision(int geohashPrecision) {
+            if (geohashPrecision < 1 || geohashPrecision > 12) {
+                throw new IllegalArgumentException("Geohash precision must be from 1 to 12");
+            }
+            this.geohashPrecision = geohashPrecision;
+            return this;
+        }
+
+        /**
+         * Sets the max number of lookups kept in the cache, or 0 to disable the cache. By default,
+         * it's 100.
+         */
+        @NonNull
+        public Builder cacheSize(int cacheSize) {
+            if (cacheSize < 0) {
+                throw new IllegalArgumentException("Cache size must not be negative");
+            }
+            this.cacheSize = cacheSize;
+            return this;
+        }
+
+        @NonNull
+        public RxGeocoder build() {
+            return new RxGeocoder(this);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * A stay or trip boundary detected by {@link TripSegmenter}.
+ */
+public final class SegmentEvent {
+    public static final int TYPE_STAY_STARTED = 1;
+    public static final int TYPE_STAY_ENDED = 2;
+    public static final int TYPE_TRIP_STARTED = 3;
+    public static final int TYPE_TRIP_ENDED = 4;
+
+    @IntDef({ TYPE_STAY_STARTED, TYPE_STAY_ENDED, TYPE_TRIP_STARTED, TYPE_TRIP_ENDED })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Type {
+    }
+
+    @SegmentEvent.Type
+    private final int type;
+    private final double latitude;
+    private final double longitude;
+    private final float radiusInMeters;
+    private final float distanceInMeters;
+    private final long startTime;
+    private final long endTime;
+    @NonNull
+    private final Location location;
+
+    SegmentEvent(int type, double latitude, double longitude, float radiusInMeters,
+        float distanceInMeters, long startTime, long endTime, @NonNull Location location) {
+        this.type = type;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusInMeters = radiusInMeters;
+        this.distanceInMeters = distanceInMeters;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.location = location;
+    }
+
+    @SegmentEvent.Type
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return the latitude of the centroid for stay events, or where the trip started or ended for
+     * trip events.
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return the longitude of the centroid for stay events, or where the trip started or ended for
+     * trip events.
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return the root mean square distance of the fixes from the centroid for stay events, or 0
+     * for trip events.
+     */
+    public float getRadiusInMeters() {
+        return radiusInMeters;
+    }
+
+    /**
+     * @return the distance travelled for trip ended events, or 0 for other events.
+     */
+    public float getDistanceInMeters() {
+        return distanceInMeters;
+    }
+
+    /**
+     * @return the time the stay or trip started, in milliseconds since epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the time the stay or trip ended, in milliseconds since epoch, or 0 for started
+     * events.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return the location that triggered the event.
+     */
+    @NonNull
+    public Location getLocation() {
+        return location;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.support.annotation.NonNull;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import java.util.concurrent.Callable;
+
+/**
+ * Shares one subscription to the source among concurrent subscribers, who all receive the same
+ * result or error. A new subscription to the source is only made after the previous one
+ * terminates, so results are never cached over time. The shared subscription is ref-counted, so
+ * it's disposed once all subscribers are disposed, e.g. by a timeout.
+ */
+final class SingleCoalescer<T> {
+    private final class InFlight implements Consumer<Object>, Action {
+        final Single<T> single;
+
+        InFlight() {
+            single = source.doOnSuccess(this)
+                .doOnError(this)
+                .toObservable()
+                .doOnDispose(this)
+                .publish()
+                .refCount()
+                .singleOrError();
+        }
+
+        @Override
+        public void accept(Object o) throws Exception {
+            clear(this);
+        }
+
+        @Override
+        public void run() throws Exception {
+            clear(this);
+        }
+    }
+
+    final Single<T> source;
+
+    private InFlight inFlight;
+
+    SingleCoalescer(@NonNull Single<T> source) {
+        this.source = source;
+    }
+
+    @NonNull
+    Single<T> get() {
+        return Single.defer(new Callable<SingleSource<T>>() {
+            @Override
+            public SingleSource<T> call() throws Exception {
+                synchronized (SingleCoalescer.this) {
+                    if (inFlight == null) {
+                        inFlight = new InFlight();
+                    }
+                    return inFlight.single;
+                }
+            }
+        });
+    }
+
+    synchronized void clear(InFlight terminated) {
+        if (inFlight == terminated) {
+            inFlight = null;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableOperator;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Compresses a track on the fly, dropping the fixes that are within the tolerance of the straight
+ * line between the neighbouring emitted fixes. This is the opening window variant of the
+ * Douglas-Peucker algorithm: a window of skipped fixes is kept since the last emitted one, and the
+ * previous fix is emitted once the line to the newest fix no longer covers all of them. The window
+ * is bounded, so memory usage is constant.
+ */
+public final class TrackCompressor implements ObservableTransformer<Location, Location> {
+    static final int DEFAULT_MAX_WINDOW_SIZE = 64;
+
+    private static final double METERS_PER_DEGREE = 111319.49;
+
+    final float toleranceInMeters;
+    final int maxWindowSize;
+
+    public TrackCompressor(float toleranceInMeters) {
+        this(toleranceInMeters, DEFAULT_MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * @param maxWindowSize the max number of fixes that can be dropped in a row
+     */
+    public TrackCompressor(float toleranceInMeters, int maxWindowSize) {
+        if (!(toleranceInMeters >= 0.0F)) {
+            throw new IllegalArgumentException("Tolerance must not be negative");
+        }
+        if (maxWindowSize < 1) {
+            throw new IllegalArgumentException("Max window size must be positive");
+        }
+        this.toleranceInMeters = toleranceInMeters;
+        this.maxWindowSize = maxWindowSize;
+    }
+
+    @Override
+    public ObservableSource<Location> apply(Observable<Location> upstream) {
+        return upstream.lift(new ObservableOperator<Location, Location>() {
+            @Override
+            public Observer<? super Location> apply(Observer<? super Location> observer)
+                throws Exception {
+                return new CompressingObserver(observer, toleranceInMeters, maxWindowSize);
+            }
+        });
+    }
+
+    static final class CompressingObserver implements Observer<Location> {
+        final Observer<? super Location> actual;
+        final float toleranceInMeters;
+
+        // offsets in meters of the fixes in the window, relative to the anchor
+        final double[] xs;
+        final double[] ys;
+        int windowSize;
+
+        Location anchor;
+        double metersPerLongitudeDegree;
+        Location pending;
+
+        CompressingObserver(Observer<? super Location> actual, float toleranceInMeters,
+            int maxWindowSize) {
+            this.actual = actual;
+            this.toleranceInMeters = toleranceInMeters;
+            xs = new double[maxWindowSize];
+            ys = new double[maxWindowSize];
+        }
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            actual.onSubscribe(d);
+        }
+
+        @Override
+        public void onNext(Location location) {
+            if (anchor == null) {
+                setAnchor(location);
+                actual.onNext(location);
+                return;
+            }
+
+            final double x = (location.getLongitude() - anchor.getLongitude())
+                * metersPerLongitudeDegree;
+            final double y = (location.getLatitude() - anchor.getLatitude()) * METERS_PER_DEGREE;
+            if (pending != null && (windowSize == xs.length || !coversWindow(x, y))) {
+                // the previous fix is significant, and starts a new window
+                final Location significant = pending;
+                setAnchor(significant);
+                actual.onNext(significant);
+
+                final double newX = (location.getLongitude() - anchor.getLongitude())
+                    * metersPerLongitudeDegree;
+                final double newY =
+                    (location.getLatitude() - anchor.getLatitude()) * METERS_PER_DEGREE;
+                addToWindow(newX, newY, location);
+            } else {
+                addToWindow(x, y, location);
+            }
+        }
+
+        private void setAnchor(Location location) {
+            anchor = location;
+            metersPerLongitudeDegree =
+                METERS_PER_DEGREE * Math.cos(Math.toRadians(location.getLatitude()));
+            windowSize = 0;
+            pending = null;
+        }
+
+        private void addToWindow(double x, double y, Location location) {
+            xs[windowSize] = x;
+            ys[windowSize] = y;
+            ++windowSize;
+            pending = location;
+        }
+
+        /**
+         * @return true if all fixes in the window are within the tolerance of the line from the
+         * anchor to the given point.
+         */
+        private boolean coversWindow(double x, double y) {
+            final double lengthSquared = x * x + y * y;
+            final double toleranceSquared = (double) toleranceInMeters * toleranceInMeters;
+            for (int i = 0; i < windowSize; ++i) {
+                final double px = xs[i];
+                final double py = ys[i];
+                final double distanceSquared;
+                if (lengthSquared == 0.0) {
+                    distanceSquared = px * px + py * py;
+                } else {
+                    // distance to the closest point on the segment
+                    final double t =
+                        Math.max(0.0, Math.min(1.0, (px * x + py * y) / lengthSquared));
+                    final double dx = px - t * x;
+                    final double dy = py - t * y;
+                    distanceSquared = dx * dx + dy * dy;
+                }
+                if (distanceSquared > toleranceSquared) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            actual.onError(e);
+        }
+
+        @Override
+        public void onComplete() {
+            // the last fix is always significant
+            if (pending != null) {
+                final Location last = pending;
+                pending = null;
+                actual.onNext(last);
+            }
+            actual.onComplete();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import android.support.annotation.NonNull;
+import io.reactivex.Observable;
+import io.reactivex.ObservableOperator;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Segments a location stream into stays and trips. A stay starts once the fixes have stayed within
+ * a radius around their centroid for a given duration, and ends with the first fix outside of it,
+ * which also starts a trip. The centroid and spread of the candidate stay are updated
+ * incrementally, so memory usage is constant however long the stream is.
+ */
+public final class TripSegmenter implements ObservableTransformer<Location, SegmentEvent> {
+    static final float DEFAULT_STAY_RADIUS_IN_METERS = 100.0F;
+    static final long DEFAULT_STAY_DURATION_IN_MILLIS = 300000L;
+    static final float DEFAULT_MAX_ACCURACY_IN_METERS = 200.0F;
+
+    private static final double METERS_PER_DEGREE = 111319.49;
+
+    final float stayRadiusInMeters;
+    final long stayDurationInMillis;
+    final float maxAccuracyInMeters;
+
+    public TripSegmenter() {
+        this(new Builder());
+    }
+
+    TripSegmenter(Builder builder) {
+        stayRadiusInMeters = builder.stayRadiusInMeters;
+        stayDurationInMillis = builder.stayDurationInMillis;
+        maxAccuracyInMeters = builder.maxAccuracyInMeters;
+    }
+
+    @Override
+    public ObservableSource<SegmentEvent> apply(Observable<Location> upstream) {
+        return upstream.lift(new ObservableOperator<SegmentEvent, Location>() {
+            @Override
+            public Observer<? super Location> apply(Observer<? super SegmentEvent> observer)
+                throws Exception {
+                return new SegmentingObserver(observer);
+            }
+        });
+    }
+
+    final class SegmentingObserver implements Observer<Location> {
+        static final int STATE_UNKNOWN = 0;
+        static final int STATE_STAY = 1;
+        static final int STATE_TRIP = 2;
+
+        final Observer<? super SegmentEvent> actual;
+
+        int state = STATE_UNKNOWN;
+
+        // the candidate stay, with fixes projected to meters around the origin
+        double originLatitude;
+        double originLongitude;
+        double metersPerLongitudeDegree;
+        int count;
+        double meanX;
+        double meanY;
+        // sum of squared distances from the mean, updated by Welford's algorithm
+        double squaredDistanceSum;
+        long startTime;
+        long endTime;
+
+        // the current trip
+        long tripStartTime;
+        double tripDistance;
+        // trip distance when the candidate stay started, i.e. when the trip ends if it's confirmed
+        double tripDistanceAtCandidate;
+        Location previousLocation;
+
+        SegmentingObserver(Observer<? super SegmentEvent> actual) {
+            this.actual = actual;
+        }
+
+        @Override
+        public void onSubscribe(Disposable d) {
+            actual.onSubscribe(d);
+        }
+
+        @Override
+        public void onNext(Location location) {
+            if (location.hasAccuracy() && location.getAccuracy() > maxAccuracyInMeters) {
+                return;
+            }
+            if (previousLocation != null) {
+                if (location.getTime() < previousLocation.getTime()) {
+                    return;
+                }
+                if (state == STATE_TRIP) {
+                    tripDistance += location.distanceTo(previousLocation);
+                }
+            }
+            previousLocation = location;
+
+            if (count == 0) {
+                startCandidate(location);
+                return;
+            }
+
+            final double x =
+                (location.getLongitude() - originLongitude) * metersPerLongitudeDegree;
+            final double y = (location.getLatitude() - originLatitude) * METERS_PER_DEGREE;
+            final double dx = x - meanX;
+            final double dy = y - meanY;
+            if (dx * dx + dy * dy > stayRadiusInMeters * stayRadiusInMeters) {
+                onLeft(location);
+                return;
+            }
+
+            ++count;
+            meanX += dx / count;
+            meanY += dy / count;
+            squaredDistanceSum += dx * (x - meanX) + dy * (y - meanY);
+            endTime = location.getTime();
+
+            if (state != STATE_STAY && endTime - startTime >= stayDurationInMillis) {
+                if (state == STATE_TRIP) {
+                    actual.onNext(new SegmentEvent(SegmentEvent.TYPE_TRIP_ENDED,
+                        originLatitude, originLongitude, 0.0F, (float) tripDistanceAtCandidate,
+                        tripStartTime, startTime, location));
+                }
+                state = STATE_STAY;
+                actual.onNext(new SegmentEvent(SegmentEvent.TYPE_STAY_STARTED,
+                    getCentroidLatitude(), getCentroidLongitude(), getRadius(), 0.0F, startTime, 0L,
+                    location));
+            }
+        }
+
+        private void onLeft(Location location) {
+            if (state == STATE_STAY) {
+                actual.onNext(new SegmentEvent(SegmentEvent.TYPE_STAY_ENDED,
+                    getCentroidLatitude(), getCentroidLongitude(), getRadius(), 0.0F, startTime,
+                    endTime, location));
+            }
+            if (state != STATE_TRIP) {
+                state = STATE_TRIP;
+                tripStartTime = endTime;
+                tripDistance = 0.0;
+                actual.onNext(new SegmentEvent(SegmentEvent.TYPE_TRIP_STARTED,
+                    getCentroidLatitude(), getCentroidLongitude(), 0.0F, 0.0F, tripStartTime, 0L,
+                    location));
+            }
+            startCandidate(location);
+        }
+
+        private void startCandidate(Location location) {
+            originLatitude = location.getLatitude();
+            originLongitude = location.getLongitude();
+            metersPerLongitudeDegree = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+            count = 1;
+            meanX = 0.0;
+            meanY = 0.0;
+            squaredDistanceSum = 0.0;
+            startTime = location.getTime();
+            endTime = startTime;
+            tripDistanceAtCandidate = tripDistance;
+        }
+
+        private double getCentroidLatitude() {
+            return originLatitude + meanY / METERS_PER_DEGREE;
+        }
+
+        private double getCentroidLongitude() {
+            return metersPerLongitudeDegree > 0.0 ? originLongitude
+                + meanX / metersPerLongitudeDegree : originLongitude;
+        }
+
+        private float getRadius() {
+            return (float) Math.sqrt(squaredDistanceSum / count);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            actual.onError(e);
+        }
+
+        @Override
+        public void onComplete() {
+            actual.onComplete();
+        }
+    }
+
+    public static class Builder {
+        float stayRadiusInMeters = DEFAULT_STAY_RADIUS_IN_METERS;
+        long stayDurationInMillis = DEFAULT_STAY_DURATION_IN_MILLIS;
+        float maxAccuracyInMeters = DEFAULT_MAX_ACCURACY_IN_METERS;
+
+        /**
+         * Sets the max distance of a fix from the centroid of the stay. By default, it's 100
+         * meters.
+         */
+        @NonNull
+        public Builder stayRadiusInMeters(float stayRadiusInMeters) {
+            if (!(stayRadiusInMeters > 0.0F)) {
+                throw new IllegalArgumentException("Stay radius must be positive");
+            }
+            this.stayRadiusInMeters = stayRadiusInMeters;
+            return this;
+        }
+
+        /**
+         * Sets how long the fixes must stay within the radius to start a stay. By default, it's 5
+         * minutes.
+         */
+        @NonNull
+        public Builder stayDurationInMillis(long stayDurationInMillis) {
+            if (stayDurationInMillis <= 0L) {
+                throw new IllegalArgumentException("Stay duration must be positive");
+            }
+            this.stayDurationInMillis = stayDurationInMillis;
+            return this;
+        }
+
+        /**
+         * Sets the worst accuracy of the fixes to use, others are ignored. By default, it's 200
+         * meters.
+         */
+        @NonNull
+        public Builder maxAccuracyInMeters(float maxAccuracyInMeters) {
+            if (!(maxAccuracyInMeters > 0.0F)) {
+                throw new IllegalArgumentException("Max accuracy must be positive");
+            }
+            this.maxAccuracyInMeters = maxAccuracyInMeters;
+            return this;
+        }
+
+        @NonNull
+        public TripSegmenter build() {
+            return new TripSegmenter(this);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.LocationManager;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultLocationScorerTest {
+    private static final double DELTA = 1e-6;
+
+    private final DefaultLocationScorer scorer = new DefaultLocationScorer(2.0F);
+
+    @Test
+    public void testScoreIsNegativeAccuracyForFreshLocation() {
+        assertEquals(-25.0, scorer.score(LocationManager.NETWORK_PROVIDER, 25.0F, 0L, 0.0F), DELTA);
+    }
+
+    @Test
+    public void testUnknownAccuracy() {
+        assertEquals(-100.0, scorer.score(LocationManager.GPS_PROVIDER, Float.NaN, 0L, 0.0F),
+            DELTA);
+        assertEquals(-1000.0,
+            scorer.score(LocationManager.NETWORK_PROVIDER, Float.NaN, 0L, 0.0F), DELTA);
+    }
+
+    @Test
+    public void testStandingStillLocationAgesAtAssumedSpeed() {
+        assertEquals(-(10.0 + 2.0 * 60.0),
+            scorer.score(LocationManager.GPS_PROVIDER, 10.0F, 60000L, 0.0F), DELTA);
+    }
+
+    @Test
+    public void testUnknownSpeedUsesAssumedSpeed() {
+        assertEquals(-(10.0 + 2.0 * 60.0),
+            scorer.score(LocationManager.GPS_PROVIDER, 10.0F, 60000L, Float.NaN), DELTA);
+    }
+
+    @Test
+    public void testFasterReportedSpeed() {
+        assertEquals(-(10.0 + 20.0 * 60.0),
+            scorer.score(LocationManager.GPS_PROVIDER, 10.0F, 60000L, 20.0F), DELTA);
+    }
+
+    @Test
+    public void testNegativeAgeIsIgnored() {
+        assertEquals(-10.0, scorer.score(LocationManager.GPS_PROVIDER, 10.0F, -60000L, 20.0F),
+            DELTA);
+    }
+
+    @Test
+    public void testFreshInaccurateLocationBeatsOldAccurateOne() {
+        final double oldAccurate = scorer.score(LocationManager.GPS_PROVIDER, 5.0F, 600000L, 0.0F);
+        final double freshInaccurate =
+            scorer.score(LocationManager.NETWORK_PROVIDER, 500.0F, 1000L, 0.0F);
+        assertTrue(freshInaccurate > oldAccurate);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeAssumedSpeed() {
+        new DefaultLocationScorer(-1.0F);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaNAssumedSpeed() {
+        new DefaultLocationScorer(Float.NaN);
+    }
+}
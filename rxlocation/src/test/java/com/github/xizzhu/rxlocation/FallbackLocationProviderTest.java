@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FallbackLocationProviderTest {
+    private final TestScheduler scheduler = new TestScheduler();
+    private final LocationUpdateRequest request = new LocationUpdateRequest.Builder().build();
+    private final Location location = mock(Location.class);
+
+    private PublishSubject<Location> primaryUpdates;
+    private PublishSubject<Location> retriedPrimaryUpdates;
+    private PublishSubject<Location> secondaryUpdates;
+    private TestObserver<Location> observer;
+
+    @Before
+    public void setUp() {
+        primaryUpdates = PublishSubject.create();
+        retriedPrimaryUpdates = PublishSubject.create();
+        secondaryUpdates = PublishSubject.create();
+        final RxLocationProvider primary = mock(RxLocationProvider.class);
+        when(primary.getLocationUpdates(any(LocationUpdateRequest.class)))
+            .thenReturn(primaryUpdates)
+            .thenReturn(retriedPrimaryUpdates);
+        final RxLocationProvider secondary = mock(RxLocationProvider.class);
+        when(secondary.getLocationUpdates(any(LocationUpdateRequest.class))).thenReturn(
+            secondaryUpdates);
+
+        observer = new FallbackLocationProvider.Builder(primary, secondary).primaryTimeoutInMillis(
+            10000L).retryDelayInMillis(60000L).scheduler(scheduler).build()
+            .getLocationUpdates(request)
+            .test();
+    }
+
+    @Test
+    public void testFallsBackWhenPrimaryIsSilent() {
+        primaryUpdates.onNext(location);
+        assertFalse(secondaryUpdates.hasObservers());
+
+        scheduler.advanceTimeBy(10000L, TimeUnit.MILLISECONDS);
+        assertTrue(secondaryUpdates.hasObservers());
+        secondaryUpdates.onNext(location);
+        observer.assertValueCount(2);
+
+        // the secondary provider is released once the primary one emits again
+        primaryUpdates.onNext(location);
+        assertFalse(secondaryUpdates.hasObservers());
+        observer.assertValueCount(3);
+        observer.assertNotTerminated();
+    }
+
+    @Test
+    public void testRetriesPrimaryAfterError() {
+        primaryUpdates.onError(new RuntimeException());
+        assertTrue(secondaryUpdates.hasObservers());
+        observer.assertNotTerminated();
+
+        scheduler.advanceTimeBy(59999L, TimeUnit.MILLISECONDS);
+        assertFalse(retriedPrimaryUpdates.hasObservers());
+        scheduler.advanceTimeBy(1L, TimeUnit.MILLISECONDS);
+        assertTrue(retriedPrimaryUpdates.hasObservers());
+        assertTrue(secondaryUpdates.hasObservers());
+
+        retriedPrimaryUpdates.onNext(location);
+        assertFalse(secondaryUpdates.hasObservers());
+        observer.assertValueCount(1);
+        observer.assertNotTerminated();
+    }
+
+    @Test
+    public void testCompletesWhenBothProvidersComplete() {
+        primaryUpdates.onComplete();
+        assertTrue(secondaryUpdates.hasObservers());
+        observer.assertNotTerminated();
+
+        secondaryUpdates.onNext(location);
+        secondaryUpdates.onComplete();
+        observer.assertValueCount(1);
+        observer.assertComplete();
+    }
+
+    @Test
+    public void testFailsWhenBothProvidersFail() {
+        primaryUpdates.onError(new RuntimeException());
+        secondaryUpdates.onError(new RuntimeException());
+        // the primary provider is still to be retried
+        observer.assertNotTerminated();
+
+        scheduler.advanceTimeBy(60000L, TimeUnit.MILLISECONDS);
+        assertTrue(retriedPrimaryUpdates.hasObservers());
+        retriedPrimaryUpdates.onError(new IllegalStateException());
+        observer.assertError(IllegalStateException.class);
+    }
+
+    @Test
+    public void testKeepsPrimaryWhenSecondaryFails() {
+        scheduler.advanceTimeBy(10000L, TimeUnit.MILLISECONDS);
+        assertTrue(secondaryUpdates.hasObservers());
+        secondaryUpdates.onError(new RuntimeException());
+        observer.assertNotTerminated();
+
+        primaryUpdates.onNext(location);
+        observer.assertValueCount(1);
+        observer.assertNotTerminated();
+
+        // the failed secondary provider isn't used again
+        scheduler.advanceTimeBy(10000L, TimeUnit.MILLISECONDS);
+        assertFalse(secondaryUpdates.hasObservers());
+        observer.assertNotTerminated();
+    }
+
+    @Test
+    public void testFailsWhenPrimaryCompletesAfterSecondaryFails() {
+        scheduler.advanceTimeBy(10000L, TimeUnit.MILLISECONDS);
+        secondaryUpdates.onError(new IllegalStateException());
+        observer.assertNotTerminated();
+
+        primaryUpdates.onComplete();
+        observer.assertError(IllegalStateException.class);
+    }
+
+    @Test
+    public void testDisposeReleasesProviders() {
+        scheduler.advanceTimeBy(10000L, TimeUnit.MILLISECONDS);
+        assertTrue(primaryUpdates.hasObservers());
+        assertTrue(secondaryUpdates.hasObservers());
+
+        observer.dispose();
+        assertFalse(primaryUpdates.hasObservers());
+        assertFalse(secondaryUpdates.hasObservers());
+    }
+}
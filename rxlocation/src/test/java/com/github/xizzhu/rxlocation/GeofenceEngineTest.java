@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GeofenceEngineTest {
+    private static Location location(double latitude, double longitude, long time) {
+        final Location location = mock(Location.class);
+        when(location.getLatitude()).thenReturn(latitude);
+        when(location.getLongitude()).thenReturn(longitude);
+        when(location.getTime()).thenReturn(time);
+        return location;
+    }
+
+    private static int[] transitions(List<GeofenceTransition> transitions) {
+        final int[] result = new int[transitions.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = transitions.get(i).getTransition();
+        }
+        return result;
+    }
+
+    @Test
+    public void testQueryOnlyReturnsOverlappingGeofences() {
+        final GeofenceEngine engine = new GeofenceEngine();
+        final Geofence near = new Geofence.Builder("near").circle(10.005, 20.005, 100.0).build();
+        final Geofence far = new Geofence.Builder("far").circle(11.005, 21.005, 100.0).build();
+        engine.add(near);
+        engine.add(far);
+
+        assertArrayEquals(new Geofence[] { near }, engine.query(10.005, 20.005));
+        assertArrayEquals(new Geofence[] { far }, engine.query(11.005, 21.005));
+        assertEquals(0, engine.query(12.005, 22.005).length);
+    }
+
+    @Test
+    public void testQueriesUseImmutableSnapshot() {
+        final GeofenceEngine engine = new GeofenceEngine();
+        final GeofenceEngine.Index emptyIndex = engine.index;
+        final Geofence geofence =
+            new Geofence.Builder("a").circle(-10.005, -20.005, 2000.0).build();
+        engine.add(geofence);
+
+        assertEquals(0, emptyIndex.keys.length);
+        final long[] keys = engine.index.keys;
+        assertEquals(engine.cells.size(), keys.length);
+        for (int i = 1; i < keys.length; ++i) {
+            assertTrue(keys[i - 1] < keys[i]);
+        }
+        assertArrayEquals(new Geofence[] { geofence }, engine.query(-10.005, -20.005));
+
+        // removing an unknown geofence keeps the snapshot
+        final GeofenceEngine.Index index = engine.index;
+        engine.remove("b");
+        assertSame(index, engine.index);
+    }
+
+    @Test
+    public void testRemove() {
+        final GeofenceEngine engine = new GeofenceEngine();
+        engine.add(new Geofence.Builder("a").circle(10.005, 20.005, 2000.0).build());
+        engine.remove("a");
+
+        assertEquals(0, engine.query(10.005, 20.005).length);
+        assertEquals(0, engine.cells.size());
+    }
+
+    @Test
+    public void testOversizedGeofenceIsNotIndexed() {
+        final GeofenceEngine engine = new GeofenceEngine();
+        final Geofence country = new Geofence.Builder("country").polygon(
+            new double[] { 0.0, 0.0, 10.0, 10.0 }, new double[] { 0.0, 10.0, 10.0, 0.0 }).build();
+        engine.add(country);
+
+        assertEquals(0, engine.cells.size());
+        assertArrayEquals(new Geofence[] { country }, engine.queryOversized());
+
+        final List<GeofenceTransition> transitions =
+            engine.monitor(Observable.just(location(5.0, 5.0, 0L))).test().values();
+        assertArrayEquals(new int[] { GeofenceTransition.TRANSITION_ENTER },
+            transitions(transitions));
+
+        engine.remove("country");
+        assertEquals(0, engine.queryOversized().length);
+    }
+
+    @Test
+    public void testEnterDwellExit() {
+        final GeofenceEngine engine = new GeofenceEngine();
+        engine.add(new Geofence.Builder("a").circle(10.005, 20.005, 100.0)
+            .dwellTimeInMillis(60000L)
+            .build());
+
+        final List<GeofenceTransition> transitions = engine.monitor(
+            Observable.just(location(10.005, 20.005, 0L), location(10.005, 20.005, 30000L),
+                location(10.005, 20.005, 60000L), location(10.5, 20.5, 90000L))).test().values();
+        assertArrayEquals(new int[] {
+            GeofenceTransition.TRANSITION_ENTER, GeofenceTransition.TRANSITION_DWELL,
+            GeofenceTransition.TRANSITION_EXIT
+        }, transitions(transitions));
+    }
+
+    @Test
+    public void testReplacingGeofenceDoesNotExitAndEnter() {
+        final GeofenceEngine engine = new GeofenceEngine();
+        engine.add(new Geofence.Builder("a").circle(10.005, 20.005, 100.0).build());
+
+        final PublishSubject<Location> locations = PublishSubject.create();
+        final TestObserver<GeofenceTransition> observer = engine.monitor(locations).test();
+
+        locations.onNext(location(10.005, 20.005, 0L));
+        final Geofence replacement = new Geofence.Builder("a").circle(10.005, 20.005, 200.0)
+            .build();
+        engine.add(replacement);
+        locations.onNext(location(10.005, 20.005, 1000L));
+        locations.onNext(location(10.5, 20.5, 2000L));
+
+        assertArrayEquals(new int[] {
+            GeofenceTransition.TRANSITION_ENTER, GeofenceTransition.TRANSITION_EXIT
+        }, transitions(observer.values()));
+        assertSame(replacement, observer.values().get(1).getGeofence());
+    }
+
+    @Test
+    public void testRemovedGeofenceExitsOnNextFix() {
+        final GeofenceEngine engine = new GeofenceEngine();
+        engine.add(new Geofence.Builder("a").circle(10.005, 20.005, 100.0).build());
+
+        final PublishSubject<Location> locations = PublishSubject.create();
+        final TestObserver<GeofenceTransition> observer = engine.monitor(locations).test();
+        locations.onNext(location(10.005, 20.005, 0L));
+        engine.remove("a");
+        locations.onNext(location(10.005, 20.005, 1000L));
+
+        assertArrayEquals(new int[] {
+            GeofenceTransition.TRANSITION_ENTER, GeofenceTransition.TRANSITION_EXIT
+        }, transitions(observer.values()));
+    }
+
+    @Test
+    public void testPolygonContains() {
+        final Geofence geofence = new Geofence.Builder("a").polygon(
+            new double[] { 0.0, 0.0, 1.0 }, new double[] { 0.0, 1.0, 0.0 }).build();
+        assertTrue(geofence.contains(0.2, 0.2));
+        assertFalse(geofence.contains(0.8, 0.8));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBuildWithoutShape() {
+        new Geofence.Builder("a").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveCellSize() {
+        new GeofenceEngine(0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaNCellSize() {
+        new GeofenceEngine(Double.NaN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveRadius() {
+        new Geofence.Builder("a").circle(0.0, 0.0, 0.0);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import io.reactivex.observers.TestObserver;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class KalmanLocationFilterTest {
+    private static final double METERS_PER_DEGREE = 111319.49;
+
+    private TestObserver<Location> observer;
+    private KalmanLocationFilter.FilteringObserver filteringObserver;
+
+    private static Location location(double northInMeters, double eastInMeters, long time,
+        float accuracy) {
+        final Location location = mock(Location.class);
+        when(location.getLatitude()).thenReturn(northInMeters / METERS_PER_DEGREE);
+        when(location.getLongitude()).thenReturn(eastInMeters / METERS_PER_DEGREE);
+        when(location.getTime()).thenReturn(time);
+        when(location.hasAccuracy()).thenReturn(true);
+        when(location.getAccuracy()).thenReturn(accuracy);
+        return location;
+    }
+
+    private static Location platformLocation(double northInMeters, long elapsedRealtimeInMillis) {
+        final Location location =
+            location(northInMeters, 0.0, 1500000000000L + elapsedRealtimeInMillis, 5.0F);
+        when(location.getElapsedRealtimeNanos()).thenReturn(elapsedRealtimeInMillis * 1000000L);
+        return location;
+    }
+
+    @Before
+    public void setUp() {
+        observer = new TestObserver<>();
+        filteringObserver = new KalmanLocationFilter.FilteringObserver(observer, 1.0F, true);
+    }
+
+    @Test
+    public void testFirstFixInitializes() {
+        filteringObserver.onNext(location(0.0, 0.0, 1000L, 10.0F));
+
+        assertEquals(1, observer.valueCount());
+        assertEquals(0.0, filteringObserver.x, 1e-9);
+        assertEquals(0.0, filteringObserver.y, 1e-9);
+        assertEquals(100.0, filteringObserver.px00, 1e-9);
+        assertEquals(100.0, filteringObserver.py00, 1e-9);
+    }
+
+    @Test
+    public void testRepeatedFixesReduceVariance() {
+        for (int i = 0; i < 5; ++i) {
+            filteringObserver.onNext(location(0.0, 0.0, 1000L * i, 10.0F));
+        }
+
+        assertEquals(5, observer.valueCount());
+        assertTrue(filteringObserver.px00 < 100.0);
+        assertTrue(filteringObserver.py00 < 100.0);
+    }
+
+    @Test
+    public void testOutOfOrderFixIsDropped() {
+        filteringObserver.onNext(location(0.0, 0.0, 2000L, 10.0F));
+        filteringObserver.onNext(location(0.0, 0.0, 1000L, 10.0F));
+
+        assertEquals(1, observer.valueCount());
+        assertEquals(2000000000L, filteringObserver.lastTimeInNanos);
+    }
+
+    @Test
+    public void testWallClockFixDoesNotBlockPlatformFixes() {
+        filteringObserver.onNext(platformLocation(0.0, 5000L));
+        // e.g. a mock or restored location, with a much larger time
+        filteringObserver.onNext(location(0.0, 0.0, 1500000006000L, 5.0F));
+        assertEquals(2, observer.valueCount());
+        assertEquals(1500000006000000000L, filteringObserver.lastTimeInNanos);
+
+        // restarts from the first platform fix, then keeps filtering
+        filteringObserver.onNext(platformLocation(0.0, 7000L));
+        filteringObserver.onNext(platformLocation(1.0, 8000L));
+        assertEquals(4, observer.valueCount());
+        assertEquals(8000000000L, filteringObserver.lastTimeInNanos);
+        assertTrue(filteringObserver.lastTimeIsElapsedRealtime);
+        assertTrue(filteringObserver.py00 < 25.0);
+    }
+
+    @Test
+    public void testVelocityIsEstimated() {
+        // moves east at 10 meters per second
+        for (int i = 0; i < 30; ++i) {
+            filteringObserver.onNext(location(0.0, 10.0 * i, 1000L * i, 5.0F));
+        }
+
+        assertEquals(10.0, filteringObserver.vx, 0.5);
+        assertEquals(0.0, filteringObserver.vy, 0.5);
+        assertEquals(290.0, filteringObserver.x, 5.0);
+    }
+
+    @Test
+    public void testOutliersAreRejectedThenReset() {
+        filteringObserver.onNext(location(0.0, 0.0, 0L, 5.0F));
+        filteringObserver.onNext(location(0.0, 0.0, 1000L, 5.0F));
+        filteringObserver.onNext(location(10000.0, 0.0, 2000L, 5.0F));
+        filteringObserver.onNext(location(10000.0, 0.0, 3000L, 5.0F));
+
+        assertEquals(2, observer.valueCount());
+        assertEquals(0.0, filteringObserver.originLatitude, 1e-9);
+
+        filteringObserver.onNext(location(10000.0, 0.0, 4000L, 5.0F));
+        assertEquals(3, observer.valueCount());
+        assertEquals(10000.0 / METERS_PER_DEGREE, filteringObserver.originLatitude, 1e-9);
+    }
+}
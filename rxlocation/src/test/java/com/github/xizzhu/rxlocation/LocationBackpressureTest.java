@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subscribers.TestSubscriber;
+import org.junit.Test;
+
+public class LocationBackpressureTest {
+    private final PublishSubject<Integer> subject = PublishSubject.create();
+
+    private TestSubscriber<Integer> emitThenRequest(LocationBackpressure backpressure) {
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>(0L);
+        backpressure.apply(subject).subscribe(subscriber);
+        for (int i = 1; i <= 5; ++i) {
+            subject.onNext(i);
+        }
+        subscriber.request(5L);
+        return subscriber;
+    }
+
+    @Test
+    public void testLatest() {
+        emitThenRequest(LocationBackpressure.latest()).assertValues(5);
+    }
+
+    @Test
+    public void testDrop() {
+        emitThenRequest(LocationBackpressure.drop()).assertNoValues();
+    }
+
+    @Test
+    public void testBufferDropsOldest() {
+        emitThenRequest(LocationBackpressure.buffer(3)).assertValues(3, 4, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveBufferCapacity() {
+        LocationBackpressure.buffer(0);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocationCacheTest {
+    private final LocationCache locationCache = LocationCache.getInstance();
+
+    private static Location location(float accuracy) {
+        final Location location = mock(Location.class);
+        when(location.getProvider()).thenReturn("gps");
+        when(location.getTime()).thenReturn(System.currentTimeMillis());
+        when(location.hasAccuracy()).thenReturn(true);
+        when(location.getAccuracy()).thenReturn(accuracy);
+        return location;
+    }
+
+    @Before
+    public void setUp() {
+        locationCache.clear();
+    }
+
+    @Test
+    public void testGetReturnsCopy() {
+        final Location location = location(10.0F);
+        locationCache.put(location);
+
+        final long hitCount = locationCache.getHitCount();
+        final Location cachedLocation1 = locationCache.get(60000L, 100.0F);
+        final Location cachedLocation2 = locationCache.get(60000L, 100.0F);
+        assertNotNull(cachedLocation1);
+        assertNotSame(location, cachedLocation1);
+        assertNotSame(cachedLocation1, cachedLocation2);
+        assertEquals(hitCount + 2L, locationCache.getHitCount());
+    }
+
+    @Test
+    public void testInaccurateLocationIsMissed() {
+        locationCache.put(location(200.0F));
+
+        final long missCount = locationCache.getMissCount();
+        assertNull(locationCache.get(60000L, 100.0F));
+        assertEquals(missCount + 1L, locationCache.getMissCount());
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import io.reactivex.Observable;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocationHistoryTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static List<Long> times(LocationHistory locationHistory) {
+        final List<Long> times = new ArrayList<>();
+        for (int i = 0; i < locationHistory.size(); ++i) {
+            times.add(locationHistory.getTime(i));
+        }
+        return times;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final LocationHistory locationHistory = new LocationHistory(10);
+        locationHistory.add(52.52, 13.405, 1000L, 5.0F, 1.5F);
+
+        final Location location = mock(Location.class);
+        when(location.getLatitude()).thenReturn(48.8566);
+        when(location.getLongitude()).thenReturn(2.3522);
+        when(location.getTime()).thenReturn(2000L);
+        Observable.just(location).compose(locationHistory).subscribe();
+
+        assertEquals(2, locationHistory.size());
+        assertEquals(52.52, locationHistory.getLatitude(0), 0.0);
+        assertEquals(13.405, locationHistory.getLongitude(0), 0.0);
+        assertEquals(1000L, locationHistory.getTime(0));
+        assertEquals(5.0F, locationHistory.getAccuracy(0), 0.0F);
+        assertEquals(1.5F, locationHistory.getSpeed(0), 0.0F);
+        assertEquals(48.8566, locationHistory.getLatitude(1), 0.0);
+        assertEquals(2.3522, locationHistory.getLongitude(1), 0.0);
+        assertEquals(2000L, locationHistory.getTime(1));
+        // unknown accuracy and speed
+        assertTrue(Float.isNaN(locationHistory.getAccuracy(1)));
+        assertTrue(Float.isNaN(locationHistory.getSpeed(1)));
+    }
+
+    @Test
+    public void testOlderFixIsIgnored() {
+        final LocationHistory locationHistory = new LocationHistory(10);
+        locationHistory.add(0.0, 0.0, 2000L, 5.0F, 0.0F);
+        locationHistory.add(0.0, 0.0, 1000L, 5.0F, 0.0F);
+        locationHistory.add(0.0, 0.0, 2000L, 5.0F, 0.0F);
+
+        assertEquals(Arrays.asList(2000L, 2000L), times(locationHistory));
+    }
+
+    @Test
+    public void testWrapAround() {
+        final LocationHistory locationHistory = new LocationHistory(3);
+        for (int i = 0; i < 7; ++i) {
+            locationHistory.add(i, -i, i * 1000L, i, i);
+        }
+
+        assertEquals(3, locationHistory.size());
+        assertEquals(Arrays.asList(4000L, 5000L, 6000L), times(locationHistory));
+        assertEquals(4.0, locationHistory.getLatitude(0), 0.0);
+        assertEquals(-6.0, locationHistory.getLongitude(2), 0.0);
+
+        locationHistory.clear();
+        assertEquals(0, locationHistory.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() {
+        final LocationHistory locationHistory = new LocationHistory(3);
+        locationHistory.add(0.0, 0.0, 0L, 0.0F, 0.0F);
+        locationHistory.getTime(1);
+    }
+
+    @Test
+    public void testSearch() {
+        final LocationHistory locationHistory = new LocationHistory(4);
+        for (int i = 0; i < 6; ++i) {
+            locationHistory.add(0.0, 0.0, i * 1000L, 0.0F, 0.0F);
+        }
+
+        // holds 2000, 3000, 4000 and 5000 after wrapping around
+        assertEquals(0, locationHistory.indexOf(0L));
+        assertEquals(1, locationHistory.indexOf(2500L));
+        assertEquals(4, locationHistory.indexOf(6000L));
+        assertEquals(0, locationHistory.findNearest(0L));
+        assertEquals(1, locationHistory.findNearest(3400L));
+        assertEquals(2, locationHistory.findNearest(3600L));
+        assertEquals(3, locationHistory.findNearest(9000L));
+
+        final List<Long> visitedTimes = new ArrayList<>();
+        final int count = locationHistory.forEach(2500L, 4000L, new LocationHistory.Visitor() {
+            @Override
+            public void visit(double latitude, double longitude, long timeInMillis,
+                float accuracy, float speed) {
+                visitedTimes.add(timeInMillis);
+            }
+        });
+        assertEquals(2, count);
+        assertEquals(Arrays.asList(3000L, 4000L), visitedTimes);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        final File file = temporaryFolder.newFile();
+        final LocationHistory locationHistory = LocationHistory.open(file, 3);
+        for (int i = 0; i < 5; ++i) {
+            locationHistory.add(i, i, i * 1000L, i, i);
+        }
+        locationHistory.flush();
+
+        final LocationHistory reopenedLocationHistory = LocationHistory.open(file, 3);
+        assertEquals(Arrays.asList(2000L, 3000L, 4000L), times(reopenedLocationHistory));
+        assertEquals(2.0, reopenedLocationHistory.getLatitude(0), 0.0);
+        assertEquals(4.0F, reopenedLocationHistory.getSpeed(2), 0.0F);
+
+        // keeps wrapping around from where it was
+        reopenedLocationHistory.add(5.0, 5.0, 5000L, 5.0F, 5.0F);
+        assertEquals(Arrays.asList(3000L, 4000L, 5000L), times(reopenedLocationHistory));
+    }
+
+    @Test
+    public void testReopenWithOtherCapacityResets() throws Exception {
+        final File file = temporaryFolder.newFile();
+        final LocationHistory locationHistory = LocationHistory.open(file, 3);
+        locationHistory.add(0.0, 0.0, 1000L, 0.0F, 0.0F);
+        locationHistory.flush();
+
+        assertEquals(0, LocationHistory.open(file, 4).size());
+    }
+
+    @Test
+    public void testCorruptedFileResets() throws Exception {
+        final File file = temporaryFolder.newFile();
+        final LocationHistory locationHistory = LocationHistory.open(file, 3);
+        locationHistory.add(0.0, 0.0, 1000L, 0.0F, 0.0F);
+        locationHistory.flush();
+
+        // an invalid head
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(12L);
+        randomAccessFile.writeInt(7);
+        randomAccessFile.close();
+
+        assertEquals(0, LocationHistory.open(file, 3).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveCapacity() {
+        new LocationHistory(0);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.Context;
+import android.location.Location;
+import io.reactivex.functions.Consumer;
+import io.reactivex.observers.TestObserver;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LocationSpoolTest {
+    private static File filesDir;
+    private static LocationSpool locationSpool;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        filesDir = File.createTempFile("rxlocation", "");
+        assertTrue(filesDir.delete() && filesDir.mkdir());
+        final Context context = mock(Context.class);
+        when(context.getApplicationContext()).thenReturn(context);
+        when(context.getFilesDir()).thenReturn(filesDir);
+        locationSpool = LocationSpool.getInstance(context);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        locationSpool.clear();
+        assertTrue(filesDir.delete());
+    }
+
+    @Before
+    public void setUp() {
+        locationSpool.clear();
+        locationSpool.setMaxLocationCount(LocationSpool.DEFAULT_MAX_LOCATION_COUNT);
+    }
+
+    private static Location location(long time) {
+        final Location location = mock(Location.class);
+        when(location.getTime()).thenReturn(time);
+        return location;
+    }
+
+    private static List<Location> locations(int count) {
+        final List<Location> locations = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            locations.add(location(i));
+        }
+        return locations;
+    }
+
+    private static long spooledLocationCount() {
+        return locationSpool.file.length() / LocationStore.RECORD_SIZE;
+    }
+
+    private static List<Long> spooledTimes() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(locationSpool.file.toPath()));
+        final List<Long> times = new ArrayList<>();
+        for (int i = 0; i < buffer.limit(); i += LocationStore.RECORD_SIZE) {
+            // the time is the last field of each record
+            times.add(buffer.getLong(i + LocationStore.RECORD_SIZE - 8));
+        }
+        return times;
+    }
+
+    private static void awaitDeleted(File file) throws Exception {
+        // the draining file is deleted right after the last location is emitted
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testRecordEncoding() {
+        final Location location = location(123456789L);
+        when(location.getLatitude()).thenReturn(57.64911);
+        when(location.getLongitude()).thenReturn(10.40744);
+        when(location.hasAccuracy()).thenReturn(true);
+        when(location.getAccuracy()).thenReturn(5.0F);
+        when(location.hasSpeed()).thenReturn(true);
+        when(location.getSpeed()).thenReturn(1.5F);
+
+        final byte[] bytes = LocationStore.encode(location);
+        assertEquals(LocationStore.RECORD_SIZE, bytes.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertEquals(1, buffer.getInt()); // version
+        assertEquals(1 | 1 << 2, buffer.getInt()); // has accuracy and speed
+        assertEquals(57.64911, buffer.getDouble(), 0.0);
+        assertEquals(10.40744, buffer.getDouble(), 0.0);
+        assertEquals(0.0, buffer.getDouble(), 0.0);
+        assertEquals(5.0F, buffer.getFloat(), 0.0F);
+        assertEquals(1.5F, buffer.getFloat(), 0.0F);
+        assertEquals(0.0F, buffer.getFloat(), 0.0F);
+        assertEquals(123456789L, buffer.getLong());
+    }
+
+    @Test
+    public void testUnknownVersionIsNotDecoded() {
+        final byte[] bytes = LocationStore.encode(location(0L));
+        bytes[3] = 2;
+        assertEquals(null, LocationStore.decode(bytes));
+    }
+
+    @Test
+    public void testPartialRecordIsIgnored() throws Exception {
+        locationSpool.offer(locations(2));
+        final FileOutputStream outputStream = new FileOutputStream(locationSpool.file, true);
+        outputStream.write(Arrays.copyOf(LocationStore.encode(location(2L)), 10));
+        outputStream.close();
+
+        assertEquals(2, LocationSpool.read(locationSpool.file).size());
+    }
+
+    @Test
+    public void testOfferAppendsAndCompacts() throws Exception {
+        locationSpool.setMaxLocationCount(10);
+        locationSpool.offer(locations(6));
+        assertEquals(6L, spooledLocationCount());
+
+        // drops the oldest locations, so that the new ones fit
+        locationSpool.offer(locations(6));
+        assertEquals(10L, spooledLocationCount());
+        final List<Long> spooledTimes = spooledTimes();
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L), spooledTimes.subList(4, 10));
+
+        // keeps only the newest ones of a batch larger than the max count
+        locationSpool.offer(locations(12));
+        assertEquals(10L, spooledLocationCount());
+        assertEquals(Arrays.asList(2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L, 11L), spooledTimes());
+    }
+
+    @Test
+    public void testSpooledLocationsAreEmittedOnce() throws Exception {
+        locationSpool.offer(locations(3));
+
+        final TestObserver<Location> observer = locationSpool.getLocations().take(3L).test();
+        observer.awaitTerminalEvent(5L, TimeUnit.SECONDS);
+        observer.assertValueCount(3);
+        assertFalse(locationSpool.file.exists());
+        awaitDeleted(locationSpool.drainingFile);
+    }
+
+    @Test
+    public void testSpooledLocationsAreKeptWhileEmitted() throws Exception {
+        locationSpool.offer(locations(3));
+
+        final List<Long> drainingLocationCounts = new ArrayList<>();
+        final TestObserver<Location> observer = locationSpool.getLocations()
+            .doOnNext(new Consumer<Location>() {
+                @Override
+                public void accept(Location location) throws Exception {
+                    drainingLocationCounts.add(
+                        locationSpool.drainingFile.length() / LocationStore.RECORD_SIZE);
+                }
+            })
+            .take(3L)
+            .test();
+        observer.awaitTerminalEvent(5L, TimeUnit.SECONDS);
+        observer.assertValueCount(3);
+        assertEquals(Arrays.asList(3L, 3L, 3L), drainingLocationCounts);
+    }
+
+    @Test
+    public void testInterruptedReplayIsEmittedAgain() throws Exception {
+        // left by a process dying while emitting spooled locations
+        final FileOutputStream outputStream = new FileOutputStream(locationSpool.drainingFile);
+        outputStream.write(LocationStore.encode(location(0L)));
+        outputStream.write(LocationStore.encode(location(1L)));
+        outputStream.close();
+        locationSpool.offer(Collections.singletonList(location(2L)));
+
+        final TestObserver<Location> observer = locationSpool.getLocations().take(3L).test();
+        observer.awaitTerminalEvent(5L, TimeUnit.SECONDS);
+        observer.assertValueCount(3);
+        assertFalse(locationSpool.file.exists());
+        awaitDeleted(locationSpool.drainingFile);
+    }
+
+    @Test
+    public void testUndeliveredLocationsAreKept() throws Exception {
+        locationSpool.offer(locations(5));
+
+        final TestObserver<Location> observer = locationSpool.getLocations().take(2L).test();
+        observer.awaitTerminalEvent(5L, TimeUnit.SECONDS);
+        observer.assertValueCount(2);
+
+        // the rest is written back once the disposal is noticed
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (spooledLocationCount() != 3L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(3L, spooledLocationCount());
+    }
+
+    @Test
+    public void testLiveLocationsAreEmittedToSubscribers() throws Exception {
+        final TestObserver<Location> observer = locationSpool.getLocations().test();
+        final long deadline = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (locationSpool) {
+                if (!locationSpool.emitters.isEmpty()) {
+                    break;
+                }
+            }
+            Thread.sleep(10L);
+        }
+
+        final Location location = location(0L);
+        locationSpool.offer(Collections.singletonList(location));
+        observer.assertValue(location);
+        assertFalse(locationSpool.file.exists());
+        observer.dispose();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaxLocationCount() {
+        locationSpool.setMaxLocationCount(0);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import io.reactivex.Observer;
+import io.reactivex.disposables.Disposable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that fixes reach 1, 10 and 100 subscribers of
+ * {@link AndroidLocationProvider#getLocationUpdates(LocationUpdateRequest)} without allocation.
+ */
+public class LocationUpdateAllocationTest {
+    private static final int WARM_UP_FIX_COUNT = 20000;
+    private static final int MEASURED_FIX_COUNT = 100000;
+
+    private AndroidLocationProvider androidLocationProvider;
+
+    private static final class Fix extends Location {
+        private final long time;
+
+        Fix(long time) {
+            super(LocationManager.NETWORK_PROVIDER);
+            this.time = time;
+        }
+
+        @Override
+        public String getProvider() {
+            return LocationManager.NETWORK_PROVIDER;
+        }
+
+        @Override
+        public long getTime() {
+            return time;
+        }
+
+        @Override
+        public double getLatitude() {
+            return 52.52 + time * 1.0E-6;
+        }
+
+        @Override
+        public double getLongitude() {
+            return 13.405;
+        }
+    }
+
+    private static final class CountingObserver implements Observer<Location> {
+        Disposable disposable;
+        int count;
+
+        @Override
+        public void onSubscribe(Disposable disposable) {
+            this.disposable = disposable;
+        }
+
+        @Override
+        public void onNext(Location location) {
+            ++count;
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            throw new AssertionError(e);
+        }
+
+        @Override
+        public void onComplete() {
+            throw new AssertionError();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported());
+
+        final Context context = mock(Context.class);
+        when(context.getApplicationContext()).thenReturn(context);
+        when(context.getSystemService(Context.LOCATION_SERVICE))
+            .thenReturn(mock(LocationManager.class));
+        androidLocationProvider =
+            new AndroidLocationProvider.Builder(context).deliverOnBackgroundThread().build();
+    }
+
+    @Test
+    public void testDispatchDoesNotAllocate() {
+        for (int subscriberCount : new int[] { 1, 10, 100 }) {
+            assertDispatchDoesNotAllocate(subscriberCount);
+        }
+    }
+
+    private void assertDispatchDoesNotAllocate(int subscriberCount) {
+        // low power requests are dispatched right away, without collapsing on the looper
+        final LocationUpdateRequest locationUpdateRequest = new LocationUpdateRequest.Builder()
+            .priority(LocationUpdateRequest.PRIORITY_LOW_POWER)
+            .build();
+        final CountingObserver[] observers = new CountingObserver[subscriberCount];
+        for (int i = 0; i < subscriberCount; ++i) {
+            observers[i] = new CountingObserver();
+            androidLocationProvider.getLocationUpdates(locationUpdateRequest)
+                .subscribe(observers[i]);
+        }
+
+        final Fix[] fixes = new Fix[WARM_UP_FIX_COUNT + MEASURED_FIX_COUNT];
+        for (int i = 0; i < fixes.length; ++i) {
+            fixes[i] = new Fix(i + 1L);
+        }
+        final LocationUpdateMultiplexer multiplexer =
+            androidLocationProvider.locationUpdateMultiplexer;
+        for (int i = 0; i < WARM_UP_FIX_COUNT; ++i) {
+            multiplexer.onLocationChanged(fixes[i]);
+        }
+
+        final long startAllocatedBytes = getAllocatedBytes();
+        for (int i = WARM_UP_FIX_COUNT; i < fixes.length; ++i) {
+            multiplexer.onLocationChanged(fixes[i]);
+        }
+        final long allocatedBytes = getAllocatedBytes() - startAllocatedBytes;
+
+        for (CountingObserver observer : observers) {
+            assertEquals(fixes.length, observer.count);
+            observer.disposable.dispose();
+        }
+        // tolerates the few bytes allocated by the measurement itself, but not one per fix
+        assertTrue(subscriberCount + " subscriber(s): " + allocatedBytes + " bytes allocated",
+            allocatedBytes < MEASURED_FIX_COUNT);
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplayLocationProviderTest {
+    private final TestScheduler scheduler = new TestScheduler();
+    private final LocationUpdateRequest request =
+        new LocationUpdateRequest.Builder().intervalInMillis(1000L).build();
+    private final List<Location> track = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 5; ++i) {
+            final Location location = mock(Location.class);
+            when(location.getTime()).thenReturn(i * 1000L);
+            track.add(location);
+        }
+    }
+
+    @Test
+    public void testReplaysOnScheduler() {
+        final ReplayLocationProvider provider =
+            new ReplayLocationProvider.Builder(track).scheduler(scheduler).build();
+        final TestObserver<Location> observer = provider.getLocationUpdates(request).test();
+
+        scheduler.triggerActions();
+        observer.assertValueCount(1);
+        scheduler.advanceTimeBy(2000L, TimeUnit.MILLISECONDS);
+        observer.assertValueCount(3);
+        scheduler.advanceTimeBy(2000L, TimeUnit.MILLISECONDS);
+        observer.assertValueCount(5);
+        observer.assertComplete();
+    }
+
+    @Test
+    public void testSpeedFactor() {
+        final ReplayLocationProvider provider =
+            new ReplayLocationProvider.Builder(track).speedFactor(2.0)
+                .scheduler(scheduler)
+                .build();
+        final TestObserver<Location> observer = provider.getLocationUpdates(request).test();
+
+        scheduler.advanceTimeBy(2000L, TimeUnit.MILLISECONDS);
+        observer.assertValueCount(5);
+        observer.assertComplete();
+    }
+
+    private static List<Long> replayStamps(ReplayLocationProvider provider,
+        final TestScheduler scheduler, final List<Long> emittedTimes) {
+        final List<Long> stamps = new ArrayList<>();
+        provider.new Replayer(new LocationUpdateRequest.Builder().build()) {
+            @Override
+            void onNext(Location location) {
+                stamps.add(lastElapsedRealtimeNanos - startElapsedRealtimeNanos);
+                emittedTimes.add(scheduler.now(TimeUnit.NANOSECONDS));
+            }
+
+            @Override
+            void onComplete() {
+            }
+        }.start();
+        scheduler.advanceTimeBy(1L, TimeUnit.MINUTES);
+        return stamps;
+    }
+
+    @Test
+    public void testStampsFollowReplayClock() {
+        final ReplayLocationProvider provider =
+            new ReplayLocationProvider.Builder(track).speedFactor(2.0)
+                .scheduler(scheduler)
+                .build();
+        final List<Long> emittedTimes = new ArrayList<>();
+        final List<Long> stamps = replayStamps(provider, scheduler, emittedTimes);
+
+        assertEquals(5, stamps.size());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(i * 500000000L, (long) stamps.get(i));
+            assertEquals(emittedTimes.get(i) - emittedTimes.get(0), (long) stamps.get(i));
+        }
+    }
+
+    @Test
+    public void testStampsKeepTrackTimeWhenReplayingAsFastAsPossible() {
+        final ReplayLocationProvider provider = new ReplayLocationProvider.Builder(track)
+            .speedFactor(ReplayLocationProvider.AS_FAST_AS_POSSIBLE)
+            .scheduler(scheduler)
+            .build();
+        final List<Long> stamps = replayStamps(provider, scheduler, new ArrayList<Long>());
+
+        assertEquals(5, stamps.size());
+        for (int i = 0; i < 5; ++i) {
+            assertEquals(i * 1000000000L, (long) stamps.get(i));
+        }
+    }
+
+    @Test
+    public void testSubscribersReceiveCopies() {
+        final ReplayLocationProvider provider =
+            new ReplayLocationProvider.Builder(track).speedFactor(
+                ReplayLocationProvider.AS_FAST_AS_POSSIBLE).scheduler(scheduler).build();
+        final TestObserver<Location> observer1 = provider.getLocationUpdates(request).test();
+        final TestObserver<Location> observer2 = provider.getLocationUpdates(request).test();
+        scheduler.triggerActions();
+
+        observer1.assertValueCount(5);
+        observer2.assertValueCount(5);
+        for (int i = 0; i < 5; ++i) {
+            assertNotSame(track.get(i), observer1.values().get(i));
+            assertNotSame(observer1.values().get(i), observer2.values().get(i));
+        }
+        assertNotSame(observer1.values().get(4), provider.getLastLocation().blockingGet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroSpeedFactor() {
+        new ReplayLocationProvider.Builder(track).speedFactor(0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaNSpeedFactor() {
+        new ReplayLocationProvider.Builder(track).speedFactor(Double.NaN);
+    }
+}
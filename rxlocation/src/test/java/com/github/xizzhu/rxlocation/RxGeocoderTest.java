@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.content.Context;
+import android.location.Address;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RxGeocoderTest {
+    private final TestScheduler scheduler = new TestScheduler();
+    private final List<Address> addresses = Collections.singletonList(mock(Address.class));
+
+    private Context context;
+    private GeocodingService geocodingService;
+
+    @Before
+    public void setUp() throws Exception {
+        context = mock(Context.class);
+        when(context.getApplicationContext()).thenReturn(context);
+        geocodingService = mock(GeocodingService.class);
+        when(geocodingService.getFromLocation(anyDouble(), anyDouble(), anyInt())).thenReturn(
+            addresses);
+    }
+
+    private RxGeocoder.Builder builder() {
+        return new RxGeocoder.Builder(context).geocodingService(geocodingService)
+            .scheduler(scheduler);
+    }
+
+    @Test
+    public void testEncodeGeohash() {
+        assertEquals("u4pruydqqvj", RxGeocoder.encodeGeohash(57.64911, 10.40744, 11));
+        assertEquals("ezs42", RxGeocoder.encodeGeohash(42.6, -5.6, 5));
+        assertEquals("s0000", RxGeocoder.encodeGeohash(0.0, 0.0, 5));
+        assertEquals("7zzzz", RxGeocoder.encodeGeohash(-0.000001, -0.000001, 5));
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        final RxGeocoder geocoder = builder().build();
+        final TestObserver<List<Address>> observer1 =
+            geocoder.getFromLocation(57.64911, 10.40744).test();
+        final TestObserver<List<Address>> observer2 =
+            geocoder.getFromLocation(57.64911, 10.40744).test();
+        scheduler.triggerActions();
+
+        observer1.assertValue(addresses);
+        observer2.assertValue(addresses);
+        verify(geocodingService, times(1)).getFromLocation(anyDouble(), anyDouble(), anyInt());
+    }
+
+    @Test
+    public void testNearbyCoordinatesAreCached() throws Exception {
+        final RxGeocoder geocoder = builder().build();
+        geocoder.getFromLocation(57.64911, 10.40744).test();
+        scheduler.triggerActions();
+
+        // in the same geohash cell of precision 7
+        final TestObserver<List<Address>> observer =
+            geocoder.getFromLocation(57.64912, 10.40745).test();
+        observer.assertValue(addresses);
+        verify(geocodingService, times(1)).getFromLocation(anyDouble(), anyDouble(), anyInt());
+    }
+
+    @Test
+    public void testZeroCacheSizeDisablesCache() throws Exception {
+        final RxGeocoder geocoder = builder().cacheSize(0).build();
+        geocoder.getFromLocation(57.64911, 10.40744).test();
+        scheduler.triggerActions();
+        geocoder.getFromLocation(57.64911, 10.40744).test();
+        scheduler.triggerActions();
+
+        verify(geocodingService, times(2)).getFromLocation(anyDouble(), anyDouble(), anyInt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaxResults() {
+        builder().maxResults(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCacheSize() {
+        builder().cacheSize(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGeohashPrecision() {
+        builder().geohashPrecision(13);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SingleCoalescerTest {
+    private final AtomicInteger subscriptions = new AtomicInteger();
+    private final AtomicInteger disposals = new AtomicInteger();
+
+    private <T> Single<T> counted(Single<T> source) {
+        return source.doOnSubscribe(new Consumer<Disposable>() {
+            @Override
+            public void accept(Disposable disposable) throws Exception {
+                subscriptions.incrementAndGet();
+            }
+        }).doOnDispose(new Action() {
+            @Override
+            public void run() throws Exception {
+                disposals.incrementAndGet();
+            }
+        });
+    }
+
+    private static void succeed(PublishSubject<String> source, String value) {
+        source.onNext(value);
+        source.onComplete();
+    }
+
+    @Test
+    public void testConcurrentSubscribersShareOneSubscription() {
+        final PublishSubject<String> source = PublishSubject.create();
+        final SingleCoalescer<String> coalescer =
+            new SingleCoalescer<>(counted(source.singleOrError()));
+        final TestObserver<String> observer1 = coalescer.get().test();
+        final TestObserver<String> observer2 = coalescer.get().test();
+
+        succeed(source, "a");
+        observer1.assertValue("a");
+        observer2.assertValue("a");
+        assertEquals(1, subscriptions.get());
+    }
+
+    @Test
+    public void testResultIsNotCachedOverTime() {
+        final SingleCoalescer<Integer> coalescer =
+            new SingleCoalescer<>(counted(Single.fromCallable(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return subscriptions.get();
+                }
+            })));
+
+        coalescer.get().test().assertValue(1);
+        coalescer.get().test().assertValue(2);
+    }
+
+    @Test
+    public void testErrorIsSharedAndNotCached() {
+        final PublishSubject<String> source = PublishSubject.create();
+        final SingleCoalescer<String> coalescer =
+            new SingleCoalescer<>(counted(source.singleOrError()));
+        final TestObserver<String> observer1 = coalescer.get().test();
+        final TestObserver<String> observer2 = coalescer.get().test();
+        source.onError(new IllegalStateException());
+
+        observer1.assertError(IllegalStateException.class);
+        observer2.assertError(IllegalStateException.class);
+        assertEquals(1, subscriptions.get());
+    }
+
+    @Test
+    public void testDisposingAllSubscribersDisposesSource() {
+        final PublishSubject<String> source = PublishSubject.create();
+        final SingleCoalescer<String> coalescer =
+            new SingleCoalescer<>(counted(source.singleOrError()));
+        final TestObserver<String> observer1 = coalescer.get().test();
+        final TestObserver<String> observer2 = coalescer.get().test();
+
+        observer1.dispose();
+        assertEquals(0, disposals.get());
+        observer2.dispose();
+        assertEquals(1, disposals.get());
+
+        // a hung lookup doesn't pin later callers
+        final TestObserver<String> observer3 = coalescer.get().test();
+        assertEquals(2, subscriptions.get());
+        succeed(source, "a");
+        observer3.assertValue("a");
+    }
+
+    @Test
+    public void testTimeoutReleasesSource() {
+        final SingleCoalescer<String> coalescer =
+            new SingleCoalescer<>(counted(Single.<String>never()));
+        final TestObserver<String> observer =
+            coalescer.get().timeout(10L, TimeUnit.MILLISECONDS).test();
+
+        observer.awaitTerminalEvent();
+        observer.assertError(TimeoutException.class);
+        assertEquals(1, disposals.get());
+    }
+
+    @Test
+    public void testConcurrentCallers() throws Exception {
+        final PublishSubject<String> source = PublishSubject.create();
+        final SingleCoalescer<String> coalescer =
+            new SingleCoalescer<>(counted(source.singleOrError()));
+        final int callers = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch subscribed = new CountDownLatch(callers);
+        final TestObserver<?>[] observers = new TestObserver<?>[callers];
+        for (int i = 0; i < callers; ++i) {
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    observers[index] = coalescer.get().test();
+                    subscribed.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(subscribed.await(5L, TimeUnit.SECONDS));
+
+        succeed(source, "a");
+        for (TestObserver<?> observer : observers) {
+            observer.assertValueCount(1);
+        }
+        assertEquals(1, subscriptions.get());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import io.reactivex.Observable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TrackCompressorTest {
+    private static final double METERS_PER_DEGREE = 111319.49;
+
+    private static Location location(double northInMeters, double eastInMeters) {
+        final Location location = mock(Location.class);
+        when(location.getLatitude()).thenReturn(northInMeters / METERS_PER_DEGREE);
+        when(location.getLongitude()).thenReturn(eastInMeters / METERS_PER_DEGREE);
+        return location;
+    }
+
+    private static List<Location> compress(TrackCompressor compressor, List<Location> locations) {
+        return Observable.fromIterable(locations).compose(compressor).test().values();
+    }
+
+    @Test
+    public void testStraightLineKeepsEndpoints() {
+        final List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            // up to 2 meters of noise around a line to the east
+            locations.add(location(i % 2 == 0 ? 2.0 : -2.0, i * 100.0));
+        }
+
+        final List<Location> compressed = compress(new TrackCompressor(5.0F), locations);
+        assertEquals(2, compressed.size());
+        assertEquals(locations.get(0), compressed.get(0));
+        assertEquals(locations.get(9), compressed.get(1));
+    }
+
+    @Test
+    public void testCornerIsKept() {
+        final List<Location> locations = new ArrayList<>();
+        for (int i = 0; i <= 5; ++i) {
+            locations.add(location(0.0, i * 100.0));
+        }
+        for (int i = 1; i <= 5; ++i) {
+            locations.add(location(i * 100.0, 500.0));
+        }
+
+        final List<Location> compressed = compress(new TrackCompressor(5.0F), locations);
+        assertEquals(3, compressed.size());
+        assertEquals(locations.get(0), compressed.get(0));
+        assertEquals(locations.get(5), compressed.get(1));
+        assertEquals(locations.get(10), compressed.get(2));
+    }
+
+    @Test
+    public void testWindowSizeIsBounded() {
+        final List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            locations.add(location(0.0, i * 100.0));
+        }
+
+        // the window holds the pending fix, so every second fix is emitted
+        final List<Location> compressed = compress(new TrackCompressor(5.0F, 2), locations);
+        assertEquals(6, compressed.size());
+    }
+
+    @Test
+    public void testZeroToleranceKeepsAllTurns() {
+        final List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            locations.add(location(i % 2 == 0 ? 0.0 : 10.0, i * 100.0));
+        }
+
+        assertEquals(6, compress(new TrackCompressor(0.0F), locations).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTolerance() {
+        new TrackCompressor(-1.0F);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaxWindowSize() {
+        new TrackCompressor(5.0F, 0);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2016 Xizhi Zhu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.xizzhu.rxlocation;
+
+import android.location.Location;
+import io.reactivex.Observable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TripSegmenterTest {
+    private static final double METERS_PER_DEGREE = 111319.49;
+
+    private static Location location(double latitude, double longitude, long time) {
+        final Location location = mock(Location.class);
+        when(location.getLatitude()).thenReturn(latitude);
+        when(location.getLongitude()).thenReturn(longitude);
+        when(location.getTime()).thenReturn(time);
+        return location;
+    }
+
+    private static int[] types(List<SegmentEvent> events) {
+        final int[] types = new int[events.size()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = events.get(i).getType();
+        }
+        return types;
+    }
+
+    private static List<SegmentEvent> segment(TripSegmenter segmenter, List<Location> locations) {
+        return Observable.fromIterable(locations).compose(segmenter).test().values();
+    }
+
+    @Test
+    public void testStayStartsAfterStayDuration() {
+        final List<Location> locations = new ArrayList<>();
+        for (int i = 0; i <= 5; ++i) {
+            // alternates 10 meters north and south of the center
+            final double offset = (i % 2 == 0 ? 10.0 : -10.0) / METERS_PER_DEGREE;
+            locations.add(location(offset, 0.0, i * 60000L));
+        }
+
+        final List<SegmentEvent> events = segment(new TripSegmenter(), locations);
+        assertArrayEquals(new int[] { SegmentEvent.TYPE_STAY_STARTED }, types(events));
+        assertEquals(0.0, events.get(0).getLatitude(), 1.0 / METERS_PER_DEGREE);
+        assertEquals(0.0, events.get(0).getLongitude(), 1e-9);
+        assertEquals(10.0, events.get(0).getRadiusInMeters(), 0.1);
+        assertEquals(0L, events.get(0).getStartTime());
+    }
+
+    @Test
+    public void testStayTripStay() {
+        final TripSegmenter segmenter = new TripSegmenter.Builder().stayRadiusInMeters(50.0F)
+            .stayDurationInMillis(120000L)
+            .build();
+        final List<Location> locations = new ArrayList<>();
+        for (int i = 0; i <= 2; ++i) {
+            locations.add(location(0.0, 0.0, i * 60000L));
+        }
+        // moves about 1 kilometer north per minute
+        for (int i = 1; i <= 3; ++i) {
+            locations.add(location(i * 0.01, 0.0, (2 + i) * 60000L));
+        }
+        for (int i = 1; i <= 2; ++i) {
+            locations.add(location(0.03, 0.0, (5 + i) * 60000L));
+        }
+
+        assertArrayEquals(new int[] {
+            SegmentEvent.TYPE_STAY_STARTED, SegmentEvent.TYPE_STAY_ENDED,
+            SegmentEvent.TYPE_TRIP_STARTED, SegmentEvent.TYPE_TRIP_ENDED,
+            SegmentEvent.TYPE_STAY_STARTED
+        }, types(segment(segmenter, locations)));
+    }
+
+    @Test
+    public void testInaccurateAndOutOfOrderFixesAreIgnored() {
+        final Location inaccurate = location(1.0, 1.0, 60000L);
+        when(inaccurate.hasAccuracy()).thenReturn(true);
+        when(inaccurate.getAccuracy()).thenReturn(500.0F);
+        final List<Location> locations = new ArrayList<>();
+        locations.add(location(0.0, 0.0, 0L));
+        locations.add(inaccurate);
+        locations.add(location(0.0, 0.0, 240000L));
+        locations.add(location(1.0, 1.0, 120000L));
+        locations.add(location(0.0, 0.0, 300000L));
+
+        assertArrayEquals(new int[] { SegmentEvent.TYPE_STAY_STARTED },
+            types(segment(new TripSegmenter(), locations)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveStayRadius() {
+        new TripSegmenter.Builder().stayRadiusInMeters(0.0F);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveStayDuration() {
+        new TripSegmenter.Builder().stayDurationInMillis(0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaxAccuracy() {
+        new TripSegmenter.Builder().maxAccuracyInMeters(-1.0F);
+    }
+}